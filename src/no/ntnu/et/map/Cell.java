@@ -6,8 +6,6 @@
  */
 package no.ntnu.et.map;
 
-import java.util.ArrayList;
-
 /**
  * This class is used to represent a cell in a grid map.
  * 
@@ -18,14 +16,10 @@ public class Cell {
     private boolean restricted;
     private boolean weaklyRestricted;
     private boolean frontier;
-    private int measurementCounter;
     private boolean occupied;
-    private boolean stateChanged;
-    private boolean isTarget;
-    private boolean isPath;
+    private byte logOdds; // See OccupancyModel
     
-    ArrayList<Cell> restrictingCells; // Other cells that restricts this cell
-    ArrayList<Cell> weaklyRestrictingCells; // Other cells that weakly restricts this cell
+    private int nearestObstacle; // Offset to the nearest occupied cell, see ObstacleOffset
     
     
     /**
@@ -36,63 +30,25 @@ public class Cell {
         previouslyObserved = false;
         restricted = false;
         frontier = false;
-        measurementCounter = 0;
-        stateChanged = false;
+        logOdds = 0;
         weaklyRestricted = false;
-        isPath = false;
-        isTarget = false;
-        restrictingCells = new ArrayList<Cell>();
-        weaklyRestrictingCells = new ArrayList<Cell>();
+        nearestObstacle = CellStorage.NO_OBSTACLE;
     }
     
     /**
-     * Adds a cell to the restricting cell. If the cell has more than
-     * one restricting cell its restricted status is set to true
-     * @param otherCell 
-     */
-    public void addRestrictingCell(Cell otherCell){
-        restrictingCells.add(otherCell);
-        if(!restrictingCells.isEmpty()){
-            restricted = true;
-        }
-    }
-    
-    /**
-     * Adds a cell to the weakly restricting cells. If the cell has more than
-     * one weakly restricting cell its weakly restricted status is set to true
-     * @param otherCell 
+     * Returns the offset to the nearest occupied cell, see ObstacleOffset
+     * @return 
      */
-    public void addWeaklyRestrictingCell(Cell otherCell){
-        weaklyRestrictingCells.add(otherCell);
-        if(!weaklyRestrictingCells.isEmpty()){
-            weaklyRestricted = true;
-        }
+    int getNearestObstacle(){
+        return nearestObstacle;
     }
     
-    /**
-     * Removes a cell from the restricting cells. If the cell has 0 restricting
-     * cells its restricted status is set to false
-     * @param otherCell cell to remove
-     */
-    public void removeRestrictingCell(Cell otherCell){
-        restrictingCells.remove(otherCell);
-        if(restrictingCells.isEmpty()){
-            restricted = false;
-        }
+    void setNearestObstacle(int nearestObstacle){
+        this.nearestObstacle = nearestObstacle;
     }
     
-    
-    
-    /**
-     * Removes a cell from the weakly restricting cells. If the cell has 0
-     * weakly restricting cell its weakly restricted status is set to false
-     * @param otherCell 
-     */
-    public void removeWeaklyRestrictingCell(Cell otherCell){
-        weaklyRestrictingCells.remove(otherCell);
-        if(weaklyRestrictingCells.isEmpty()){
-            weaklyRestricted = false;
-        }
+    void setWeaklyRestricted(boolean weaklyRestricted){
+        this.weaklyRestricted = weaklyRestricted;
     }
     
     /**
@@ -102,63 +58,42 @@ public class Cell {
     public boolean isWeaklyRestricted(){
         return weaklyRestricted;
     }
-    public boolean isPath(){
-        return isPath;
-    }
-    
-    public void setPath(){
-        isPath = true;
-    }
-    
-    public void setNotPath(){
-        isPath = false;
-    }
-    public boolean isTarget(){
-        return isTarget;
-    }
-    
-    public void setTarget(){
-        isTarget = true;
-    }
-    
-    public void setNotTarget(){
-        isTarget = false;
+    /**
+     * Adds a measurement to the log-odds of the cell. The cell only changes
+     * between free and occupied when the model says so.
+     * @param measurement true if an obstacle was measured
+     * @param model 
+     */
+    void update(boolean measurement, OccupancyModel model) {
+        update(0, 0, measurement, model);
     }
-    
-    void update(boolean measurement) {          
-        if (measurement){
-            if(occupied == false){
-                stateChanged = true;
-            }
-            else{
-                stateChanged = false;
-            }
-            occupied = true;
-        }
-        else{
-            if(occupied == true){
-                stateChanged = true;
-            }
-            else{
-                stateChanged = false;
-            }
-            occupied = false;
-        }
-        if(!previouslyObserved){
-            previouslyObserved = true;
-            stateChanged = true;
-        }  
+
+    /**
+     * Adds several measurements to the log-odds of the cell, see
+     * OccupancyModel.update(int, int, int, boolean)
+     * @param hits
+     * @param misses
+     * @param latest
+     * @param model 
+     */
+    void update(int hits, int misses, boolean latest, OccupancyModel model) {
+        logOdds = (byte) model.update(logOdds, hits, misses, latest);
+        occupied = model.isOccupied(logOdds, occupied);
+        previouslyObserved = true;
     }
 
     /**
-     * Returns true if and only if the "occupied" variable changed during the 
-     * latest measurement of the cell
-     * @return 
+     * Sets the cell as observed and occupied or free at the threshold of the
+     * model, see OccupancyModel.getThresholdLogOdds
+     * @param occupied
+     * @param model 
      */
-    boolean stateChanged(){
-        return stateChanged;
+    void restore(boolean occupied, OccupancyModel model) {
+        this.occupied = occupied;
+        logOdds = (byte) model.getThresholdLogOdds(occupied);
+        previouslyObserved = true;
     }
-    
+
     public void setFrontier(){
         frontier = true;
     }
@@ -0,0 +1,89 @@
+/*
+ * This code is written as a part of a Master Thesis
+ * the spring of 2016.
+ *
+ * Eirik Thon(Master 2016 @ NTNU)
+ */
+package no.ntnu.et.map;
+
+import java.util.Arrays;
+
+/**
+ * First in first out queue of cells, stored as rows and columns in primitive
+ * arrays. Used for the waves that update the distances to the nearest
+ * obstacles in a GridMap. The arrays grow when needed and are reused when the
+ * queue has been emptied.
+ *
+ * @author Eirik Thon
+ */
+class CellQueue {
+    private int[] rows;
+    private int[] columns;
+    private int head;
+    private int tail;
+
+    CellQueue() {
+        rows = new int[64];
+        columns = new int[64];
+        head = 0;
+        tail = 0;
+    }
+
+    void add(int row, int column) {
+        if (tail == rows.length) {
+            if (head > rows.length / 2) {
+                // Move the remaining cells to the front instead of growing
+                System.arraycopy(rows, head, rows, 0, tail - head);
+                System.arraycopy(columns, head, columns, 0, tail - head);
+                tail -= head;
+                head = 0;
+            } else {
+                rows = Arrays.copyOf(rows, rows.length * 2);
+                columns = Arrays.copyOf(columns, columns.length * 2);
+            }
+        }
+        rows[tail] = row;
+        columns[tail] = column;
+        tail++;
+    }
+
+    /**
+     * Removes all cells from the queue
+     */
+    void clear() {
+        head = 0;
+        tail = 0;
+    }
+
+    boolean isEmpty() {
+        return head == tail;
+    }
+
+    /**
+     * Removes the first cell in the queue. Its row and column must be read
+     * with getRow and getColumn before it is removed.
+     */
+    void remove() {
+        head++;
+        if (head == tail) {
+            head = 0;
+            tail = 0;
+        }
+    }
+
+    /**
+     * Returns the row of the first cell in the queue
+     * @return
+     */
+    int getRow() {
+        return rows[head];
+    }
+
+    /**
+     * Returns the column of the first cell in the queue
+     * @return
+     */
+    int getColumn() {
+        return columns[head];
+    }
+}
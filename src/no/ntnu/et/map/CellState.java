@@ -0,0 +1,77 @@
+/*
+ * This code is written as a part of a Master Thesis
+ * the spring of 2016.
+ *
+ * Eirik Thon(Master 2016 @ NTNU)
+ */
+package no.ntnu.et.map;
+
+/**
+ * Static functions for the state of a cell packed into 16 bits, as it is kept
+ * by the primitive cell storages. The low byte holds the flags and the high
+ * byte holds the log-odds of the cell being occupied as a signed value, which
+ * is the confidence the OccupancyModel works on. Together with the offset to
+ * the nearest obstacle (ObstacleOffset) a cell takes four bytes.
+ *
+ * <pre>
+ * bit  0      observed
+ * bit  1      occupied
+ * bit  2      restricted
+ * bit  3      weakly restricted
+ * bit  4      frontier
+ * bit  5-7    unused
+ * bit  8-15   log-odds, -128 to 127
+ * </pre>
+ *
+ * A cell that has never been written to has the state 0.
+ *
+ * @author Eirik Thon
+ */
+final class CellState {
+    static final int OBSERVED = 1;
+    static final int OCCUPIED = 2;
+    static final int RESTRICTED = 4;
+    static final int WEAKLY_RESTRICTED = 8;
+    static final int FRONTIER = 16;
+
+    private static final int FLAG_MASK = 0xFF;
+    private static final int LOG_ODDS_SHIFT = 8;
+
+    private CellState() {
+    }
+
+    static int getFlags(int state) {
+        return state & FLAG_MASK;
+    }
+
+    /**
+     * Returns the log-odds of the cell as a signed value
+     * @param state
+     * @return
+     */
+    static int getLogOdds(int state) {
+        return (short) state >> LOG_ODDS_SHIFT;
+    }
+
+    /**
+     * Packs flags and log-odds into one state
+     * @param flags
+     * @param logOdds must be between -128 and 127
+     * @return
+     */
+    static int pack(int flags, int logOdds) {
+        return (logOdds << LOG_ODDS_SHIFT) & 0xFF00 | (flags & FLAG_MASK);
+    }
+
+    static int setFlags(int state, int flags) {
+        return (state & ~FLAG_MASK) | (flags & FLAG_MASK);
+    }
+
+    static int setLogOdds(int state, int logOdds) {
+        return pack(state, logOdds);
+    }
+
+    static boolean isOccupied(int state) {
+        return (state & (OBSERVED | OCCUPIED)) == (OBSERVED | OCCUPIED);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * This code is written as a part of a Master Thesis
+ * the spring of 2016.
+ *
+ * Eirik Thon(Master 2016 @ NTNU)
+ */
+package no.ntnu.et.map;
+
+/**
+ * This interface describes how the cells of a GridMap are stored. The GridMap
+ * keeps track of its own boundaries and only asks the storage for the state of
+ * cells that are inside them. All cells are addressed by row and column so
+ * that no MapLocation has to be created to look up a cell.
+ *
+ * @author Eirik Thon
+ */
+interface CellStorage {
+
+    /**
+     * Returned by getNearestObstacle when no occupied cell is close enough to
+     * be recorded
+     */
+    int NO_OBSTACLE = 0;
+
+    /**
+     * Creates new cells with default values for all rows and columns in the
+     * specified area. The area is always adjacent to the cells that already
+     * exist.
+     * @param bottomRow
+     * @param topRow
+     * @param leftColumn
+     * @param rightColumn
+     */
+    void addCells(int bottomRow, int topRow, int leftColumn, int rightColumn);
+
+    /**
+     * Returns true if the storage can hold cells outside the area created with
+     * addCells. Restrictions are then also added to cells outside the
+     * boundaries of the map, so cells that are added later need no set up.
+     * @return
+     */
+    boolean isUnbounded();
+
+    /**
+     * Returns a Cell object for the specified cell
+     * @param row
+     * @param column
+     * @return
+     */
+    Cell getCell(int row, int column);
+
+    /**
+     * Updates the cell with a new measurement. Returns true if the occupied
+     * status of the cell changed.
+     * @param row
+     * @param column
+     * @param measurement
+     * @return
+     */
+    boolean update(int row, int column, boolean measurement);
+
+    /**
+     * Updates the cell with several measurements at once, see
+     * OccupancyModel.update(int, int, int, boolean). Returns true if the
+     * occupied status of the cell changed.
+     * @param row
+     * @param column
+     * @param hits the number of earlier measurements of an obstacle
+     * @param misses the number of earlier measurements of free space
+     * @param latest the latest measurement
+     * @return
+     */
+    boolean update(int row, int column, int hits, int misses, boolean latest);
+
+    /**
+     * Sets the cell at (row, column) as observed and occupied or free at the
+     * threshold of the occupancy model. Used when a saved map is
+     * restored. Restrictions and frontier are not changed.
+     * @param row
+     * @param column
+     * @param occupied
+     */
+    void restore(int row, int column, boolean occupied);
+
+    /**
+     * Returns the offset from the cell at (row, column) to the nearest
+     * occupied cell, encoded with ObstacleOffset, or NO_OBSTACLE
+     * @param row
+     * @param column
+     * @return
+     */
+    int getNearestObstacle(int row, int column);
+
+    void setNearestObstacle(int row, int column, int nearestObstacle);
+
+    /**
+     * Sets the (weakly) restricted status of the cell at (row, column).
+     * Returns true if the status changed.
+     * @param row
+     * @param column
+     * @param weakly true to set the weakly restricted status
+     * @param restricted
+     * @return
+     */
+    boolean setRestricted(int row, int column, boolean weakly, boolean restricted);
+
+    boolean isPreviouslyObserved(int row, int column);
+
+    boolean isOccupied(int row, int column);
+
+    boolean isRestricted(int row, int column);
+
+    boolean isWeaklyRestricted(int row, int column);
+
+    boolean isFrontier(int row, int column);
+
+    void setFrontier(int row, int column, boolean frontier);
+}
@@ -0,0 +1,23 @@
+/*
+ * This code is written as a part of a Master Thesis
+ * the spring of 2016.
+ *
+ * Eirik Thon(Master 2016 @ NTNU)
+ */
+package no.ntnu.et.map;
+
+/**
+ * Callback used to visit cells in a GridMap without creating a MapLocation or
+ * a list for each cell.
+ *
+ * @author Eirik Thon
+ */
+public interface CellVisitor {
+
+    /**
+     * Called once for every visited cell
+     * @param row
+     * @param column
+     */
+    void visit(int row, int column);
+}
@@ -0,0 +1,71 @@
+/*
+ * This code is written as a part of a Master Thesis
+ * the spring of 2016.
+ *
+ * Eirik Thon(Master 2016 @ NTNU)
+ */
+package no.ntnu.et.map;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class describes the shape of a circle in the grid. For every row
+ * offset from the center of the circle the stencil stores how many columns
+ * the circle extends to each side. A cell (row, column) is inside the circle
+ * if (row-centerRow)^2 + (column-centerColumn)^2 <= radius^2, where the radius
+ * is measured in cells.
+ *
+ * Stencils are created once for each radius and then reused.
+ *
+ * @author Eirik Thon
+ */
+class CircleStencil {
+    private static final ConcurrentHashMap<Integer, CircleStencil> stencils = new ConcurrentHashMap<Integer, CircleStencil>();
+
+    private final int radius;
+    private final int[] halfWidths;
+
+    private CircleStencil(int radius) {
+        this.radius = radius;
+        halfWidths = new int[2 * radius + 1];
+        for (int i = -radius; i <= radius; i++) {
+            int halfWidth = 0;
+            while ((halfWidth + 1) * (halfWidth + 1) + i * i <= radius * radius) {
+                halfWidth++;
+            }
+            halfWidths[i + radius] = halfWidth;
+        }
+    }
+
+    /**
+     * Returns the stencil for a circle with the specified radius (in cells)
+     * @param radius
+     * @return
+     */
+    static CircleStencil get(int radius) {
+        CircleStencil stencil = stencils.get(radius);
+        if (stencil == null) {
+            stencil = new CircleStencil(radius);
+            stencils.putIfAbsent(radius, stencil);
+        }
+        return stencil;
+    }
+
+    /**
+     * Returns the radius of the circle in cells
+     * @return
+     */
+    int getRadius() {
+        return radius;
+    }
+
+    /**
+     * Returns how many columns the circle extends to each side of the center
+     * in the row with the specified offset from the center row
+     * @param rowOffset must be between -radius and radius
+     * @return
+     */
+    int getHalfWidth(int rowOffset) {
+        return halfWidths[rowOffset + radius];
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * This code is written as a part of a Master Thesis
+ * the spring of 2016.
+ *
+ * Eirik Thon(Master 2016 @ NTNU)
+ */
+package no.ntnu.et.map;
+
+/**
+ * Cell storage where the state of all cells is kept in flat primitive arrays.
+ * The cell at (row, column) is found at index
+ * (row - originRow) * columns + (column - originColumn). The arrays are
+ * allocated with some slack in every direction so that the map can grow
+ * without copying the arrays every time a row or column is added.
+ *
+ * @author Eirik Thon
+ */
+class DenseCellStorage extends PrimitiveCellStorage {
+    private static final int MINIMUM_SLACK = 16;
+
+    private volatile Grid grid;
+
+    /**
+     * The arrays and the area they cover. A new Grid is created when the map
+     * grows outside the current one, so that readers always see arrays and
+     * offsets that belong together.
+     */
+    private static class Grid {
+        final int originRow;
+        final int originColumn;
+        final int rows;
+        final int columns;
+        final short[] states;
+        final short[] nearestObstacles;
+
+        Grid(int originRow, int originColumn, int rows, int columns) {
+            this.originRow = originRow;
+            this.originColumn = originColumn;
+            this.rows = rows;
+            this.columns = columns;
+            states = new short[rows * columns];
+            nearestObstacles = new short[rows * columns];
+        }
+
+        boolean covers(int bottomRow, int topRow, int leftColumn, int rightColumn) {
+            return bottomRow >= originRow && topRow < originRow + rows
+                    && leftColumn >= originColumn && rightColumn < originColumn + columns;
+        }
+
+        int index(int row, int column) {
+            return (row - originRow) * columns + (column - originColumn);
+        }
+    }
+
+    DenseCellStorage(OccupancyModel model) {
+        super(model);
+        grid = new Grid(0, 0, 0, 0);
+    }
+
+    @Override
+    public void addCells(int bottomRow, int topRow, int leftColumn, int rightColumn) {
+        Grid old = grid;
+        if (old.rows == 0) {
+            grid = new Grid(bottomRow, leftColumn, topRow - bottomRow + 1, rightColumn - leftColumn + 1);
+            return;
+        }
+        if (old.covers(bottomRow, topRow, leftColumn, rightColumn)) {
+            return;
+        }
+        int bottom = Math.min(bottomRow, old.originRow);
+        int top = Math.max(topRow, old.originRow + old.rows - 1);
+        int left = Math.min(leftColumn, old.originColumn);
+        int right = Math.max(rightColumn, old.originColumn + old.columns - 1);
+        int rowSlack = Math.max(MINIMUM_SLACK, (top - bottom + 1) / 2);
+        int columnSlack = Math.max(MINIMUM_SLACK, (right - left + 1) / 2);
+        if (bottom < old.originRow) {
+            bottom -= rowSlack;
+        }
+        if (top >= old.originRow + old.rows) {
+            top += rowSlack;
+        }
+        if (left < old.originColumn) {
+            left -= columnSlack;
+        }
+        if (right >= old.originColumn + old.columns) {
+            right += columnSlack;
+        }
+        Grid newGrid = new Grid(bottom, left, top - bottom + 1, right - left + 1);
+        for (int i = 0; i < old.rows; i++) {
+            int from = i * old.columns;
+            int to = newGrid.index(old.originRow + i, old.originColumn);
+            System.arraycopy(old.states, from, newGrid.states, to, old.columns);
+            System.arraycopy(old.nearestObstacles, from, newGrid.nearestObstacles, to, old.columns);
+        }
+        grid = newGrid;
+    }
+
+    @Override
+    public boolean isUnbounded() {
+        return false;
+    }
+
+    @Override
+    int getState(int row, int column) {
+        Grid g = grid;
+        return g.states[g.index(row, column)] & 0xFFFF;
+    }
+
+    @Override
+    void setState(int row, int column, int state) {
+        Grid g = grid;
+        g.states[g.index(row, column)] = (short) state;
+    }
+
+    @Override
+    public int getNearestObstacle(int row, int column) {
+        Grid g = grid;
+        return g.nearestObstacles[g.index(row, column)] & 0xFFFF;
+    }
+
+    @Override
+    public void setNearestObstacle(int row, int column, int nearestObstacle) {
+        Grid g = grid;
+        g.nearestObstacles[g.index(row, column)] = (short) nearestObstacle;
+    }
+}
@@ -7,12 +7,17 @@
 package no.ntnu.et.map;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import no.ntnu.et.general.Position;
 
 /**
- * This class represents a grid map. A hash table of MapLocations and Cells are
- * used to represent the actual map. The map expand in all directions. Expansion
+ * This class represents a grid map. The cells are kept in a CellStorage, which
+ * is either a hash table of MapLocations and Cells or flat primitive arrays,
+ * selected when the map is created. The map expand in all directions. Expansion
  * downwards and to the left will lead to negative rows and columns. The map
  * contains variables to specify the indexes of the columns and rows at its
  * boundaries.
@@ -38,44 +43,337 @@ import no.ntnu.et.general.Position;
  */
 
 public class GridMap{
-    private ConcurrentHashMap<MapLocation, Cell> map;
+    /**
+     * Stores the cells as Cell objects in a hash table of MapLocations and Cells
+     */
+    public static final int HASHED_STORAGE = 0;
+    /**
+     * Stores the state of the cells packed in flat primitive arrays, four
+     * bytes per cell
+     */
+    public static final int DENSE_STORAGE = 1;
+    /**
+     * Stores the state of the cells packed in tiles that are allocated when
+     * they are first written to, four bytes per cell. Use this for large maps
+     */
+    public static final int TILED_STORAGE = 2;
+    
+    /**
+     * A cell is occupied if its latest measurement was an obstacle
+     */
+    public static final int BINARY_OCCUPANCY = 0;
+    /**
+     * The measurements of each cell are accumulated as log-odds, and a cell
+     * only changes between free and occupied when the evidence is strong
+     * enough. See OccupancyModel.
+     */
+    public static final int LOG_ODDS_OCCUPANCY = 1;
+    
+    /**
+     * The side length (in cells) of the square chunks used to keep track of
+     * which parts of the map that have changed since the last clean up
+     */
+    static final int CHUNK_SIZE = 16;
+    
+    /**
+     * Cells closer than this (in cm) to an occupied cell are restricted
+     */
+    public static final int RESTRICTED_RADIUS = 15;
+    /**
+     * Cells closer than this (in cm) to an occupied cell are weakly
+     * restricted. The distance to the nearest occupied cell is only known for
+     * cells within this radius.
+     */
+    public static final int WEAKLY_RESTRICTED_RADIUS = 25;
+    
+    // The neighbors visited by the waves that update the obstacle distances
+    private static final int[] NEIGHBOR_ROWS = {1, 1, 1, 0, 0, -1, -1, -1};
+    private static final int[] NEIGHBOR_COLUMNS = {-1, 0, 1, -1, 1, -1, 0, 1};
+    
+    
+    private CellStorage storage;
+    private LongHashSet frontierLocations;
+    private LongHashSet dirtyChunks;
+    private ObservedCellBitmap observedCells;
+    // The waves that update the obstacle distances, only used by the thread
+    // that updates the map
+    private CellQueue raisedCells;
+    private CellQueue loweredCells;
+    // The measurements of each cell in a chunk of a batch, and a bit for each
+    // cell that has been measured, only used by the thread that updates the
+    // map. The bits are cleared after each chunk.
+    private long[] visitedCells;
+    private int[] cellHits;
+    private int[] cellMisses;
+    private boolean[] latestMeasurements;
+    // Number of cells inside the map in each state
+    private AtomicInteger numberOfObservedCells;
+    private AtomicInteger numberOfOccupiedCells;
+    private AtomicInteger numberOfRestrictedCells;
+    // Held for writing while the map grows and for reading while it is updated
+    private ReentrantReadWriteLock resizeLock;
+    private StripedRegionLock regionLock;
+    // Chunks that have changed since the last snapshot
+    private LongHashSet changedChunks;
+    private volatile boolean frontierChanged;
+    private volatile MapSnapshot snapshot;
+    private CopyOnWriteArrayList<MapChangeQueue> changeQueues;
     private int cellSize;
-    private int topRow;
-    private int bottomRow;
-    private int rightColumn;
-    private int leftColumn;
+    // The radii of the restrictions in cells, and the squared distances in
+    // cells that make a cell restricted
+    private int obstacleRange;
+    private int restrictedDistance;
+    private int weaklyRestrictedDistance;
+    private volatile int topRow;
+    private volatile int bottomRow;
+    private volatile int rightColumn;
+    private volatile int leftColumn;
     
     /**
-     * Constructor for the GridMap class
+     * Constructor for the GridMap class. The cells are stored in a hash table.
      * @param cellSize Specifies the size of cells in cm. Cells are quadratic
      * so no extra dimension is needed
      * @param width Specifies the initial width of the map in cm.
      * @param height Specifies the initial height of the map in cm
      */
     public GridMap(int cellSize, int width, int height) {
+        this(cellSize, width, height, HASHED_STORAGE);
+    }
+    
+    /**
+     * Constructor for the GridMap class
+     * @param cellSize Specifies the size of cells in cm. Cells are quadratic
+     * so no extra dimension is needed
+     * @param width Specifies the initial width of the map in cm.
+     * @param height Specifies the initial height of the map in cm
+     * @param storageType HASHED_STORAGE, DENSE_STORAGE or TILED_STORAGE
+     */
+    public GridMap(int cellSize, int width, int height, int storageType) {
+        this(cellSize, width, height, storageType, BINARY_OCCUPANCY);
+    }
+    
+    /**
+     * Constructor for the GridMap class
+     * @param cellSize Specifies the size of cells in cm. Cells are quadratic
+     * so no extra dimension is needed
+     * @param width Specifies the initial width of the map in cm.
+     * @param height Specifies the initial height of the map in cm
+     * @param storageType HASHED_STORAGE, DENSE_STORAGE or TILED_STORAGE
+     * @param occupancyModel BINARY_OCCUPANCY or LOG_ODDS_OCCUPANCY
+     */
+    public GridMap(int cellSize, int width, int height, int storageType, int occupancyModel) {
         if (cellSize <= 0 || width <= 0 || height <= 0 || width % cellSize != 0 || height % cellSize != 0){
             System.out.println("Error. All parameters must be positive and width and height must be a positive multiple of cellSize");
         }else{
-            this.cellSize = cellSize;
-            map = new ConcurrentHashMap<MapLocation, Cell>();
+            initialize(cellSize, storageType, occupancyModel);
             topRow = height/cellSize-1;
             bottomRow = 0;
             rightColumn = width/cellSize-1;
             leftColumn = 0;
-            for (int i = bottomRow; i <= topRow; i++) {
-                for (int j = leftColumn; j <= rightColumn; j++) {
-                    map.put(new MapLocation(i, j), new Cell());
+            storage.addCells(bottomRow, topRow, leftColumn, rightColumn);
+            snapshot = new MapSnapshot(0, cellSize, CHUNK_SIZE, bottomRow, topRow, leftColumn, rightColumn,
+                    new MapSnapshot.Chunk[countChunks(bottomRow, topRow, leftColumn, rightColumn)],
+                    new long[0], getStatistics());
+        }
+    }
+    
+    /**
+     * Creates a map with the same cells as a snapshot, for example one read
+     * from a MapFile. Observed cells are restored as occupied or free at the
+     * thresholds of the occupancy model, since the log-odds of the cells are
+     * not in the snapshot. The restrictions, obstacle distances and frontier
+     * are copied from the snapshot, so nothing has to be computed except the
+     * obstacle distances of cells just outside the map when the storage is
+     * unbounded. The snapshot becomes the first snapshot of the map. Clean
+     * ups that were pending in the map the snapshot was created from are not
+     * restored.
+     * @param snapshot
+     * @param storageType HASHED_STORAGE, DENSE_STORAGE or TILED_STORAGE
+     * @param occupancyModel BINARY_OCCUPANCY or LOG_ODDS_OCCUPANCY
+     */
+    public GridMap(MapSnapshot snapshot, int storageType, int occupancyModel) {
+        initialize(snapshot.getCellSize(), storageType, occupancyModel);
+        topRow = snapshot.getTopRow();
+        bottomRow = snapshot.getBottomRow();
+        rightColumn = snapshot.getRightColumn();
+        leftColumn = snapshot.getLeftColumn();
+        storage.addCells(bottomRow, topRow, leftColumn, rightColumn);
+        for(int i = Math.floorDiv(bottomRow, CHUNK_SIZE); i <= Math.floorDiv(topRow, CHUNK_SIZE); i++){
+            for(int j = Math.floorDiv(leftColumn, CHUNK_SIZE); j <= Math.floorDiv(rightColumn, CHUNK_SIZE); j++){
+                MapSnapshot.Chunk chunk = snapshot.getChunk(i, j);
+                if(chunk != null){
+                    restoreChunk(i, j, chunk);
                 }
             }
         }
+        if(storage.isUnbounded()){
+            for(int i = bottomRow - obstacleRange; i <= topRow + obstacleRange; i++){
+                for(int j = leftColumn - obstacleRange; j <= rightColumn + obstacleRange; j++){
+                    if(isInsideMap(i, j)){
+                        j = rightColumn;
+                        continue;
+                    }
+                    int nearest = findNearestObstacle(i, j);
+                    if(nearest != CellStorage.NO_OBSTACLE){
+                        setNearestObstacle(i, j, nearest);
+                    }
+                }
+            }
+        }
+        this.snapshot = snapshot;
     }
     
     /**
-     * Returns the total number of cells in the map (NOT USED)
+     * Returns RESTRICTED_RADIUS in whole cells. A cell is restricted if the
+     * distance in cells to the nearest occupied cell is at most this.
+     * @param cellSize
+     * @return 
+     */
+    public static int getRestrictedCells(int cellSize) {
+        return RESTRICTED_RADIUS/cellSize;
+    }
+    
+    /**
+     * Returns WEAKLY_RESTRICTED_RADIUS in whole cells. A cell is weakly
+     * restricted if the distance in cells to the nearest occupied cell is at
+     * most this.
+     * @param cellSize
+     * @return 
+     */
+    public static int getWeaklyRestrictedCells(int cellSize) {
+        return WEAKLY_RESTRICTED_RADIUS/cellSize;
+    }
+    
+    /**
+     * Creates the storage and the other members of the map
+     * @param cellSize
+     * @param storageType
+     * @param occupancyModel 
+     */
+    private void initialize(int cellSize, int storageType, int occupancyModel) {
+        this.cellSize = cellSize;
+        obstacleRange = getWeaklyRestrictedCells(cellSize);
+        restrictedDistance = getRestrictedCells(cellSize)*getRestrictedCells(cellSize);
+        weaklyRestrictedDistance = obstacleRange*obstacleRange;
+        OccupancyModel model;
+        if (occupancyModel == LOG_ODDS_OCCUPANCY) {
+            model = OccupancyModel.createLogOdds();
+        } else {
+            model = OccupancyModel.createBinary();
+        }
+        if (storageType == DENSE_STORAGE) {
+            storage = new DenseCellStorage(model);
+        } else if (storageType == TILED_STORAGE) {
+            storage = new TiledCellStorage(model);
+        } else {
+            storage = new HashCellStorage(model);
+        }
+        frontierLocations = new LongHashSet();
+        dirtyChunks = new LongHashSet();
+        observedCells = new ObservedCellBitmap();
+        raisedCells = new CellQueue();
+        loweredCells = new CellQueue();
+        visitedCells = new long[CHUNK_SIZE * CHUNK_SIZE / 64];
+        cellHits = new int[CHUNK_SIZE * CHUNK_SIZE];
+        cellMisses = new int[CHUNK_SIZE * CHUNK_SIZE];
+        latestMeasurements = new boolean[CHUNK_SIZE * CHUNK_SIZE];
+        numberOfObservedCells = new AtomicInteger();
+        numberOfOccupiedCells = new AtomicInteger();
+        numberOfRestrictedCells = new AtomicInteger();
+        resizeLock = new ReentrantReadWriteLock();
+        regionLock = new StripedRegionLock(CHUNK_SIZE);
+        changedChunks = new LongHashSet();
+        changeQueues = new CopyOnWriteArrayList<MapChangeQueue>();
+    }
+    
+    /**
+     * Copies the cells of a snapshot chunk into the storage and counts them
+     * @param chunkRow
+     * @param chunkColumn
+     * @param chunk 
+     */
+    private void restoreChunk(int chunkRow, int chunkColumn, MapSnapshot.Chunk chunk) {
+        int bottom = Math.max(chunkRow*CHUNK_SIZE, bottomRow);
+        int top = Math.min((chunkRow+1)*CHUNK_SIZE - 1, topRow);
+        int left = Math.max(chunkColumn*CHUNK_SIZE, leftColumn);
+        int right = Math.min((chunkColumn+1)*CHUNK_SIZE - 1, rightColumn);
+        for(int i = bottom; i <= top; i++){
+            for(int j = left; j <= right; j++){
+                int k = (i - chunkRow*CHUNK_SIZE)*CHUNK_SIZE + j - chunkColumn*CHUNK_SIZE;
+                int flags = chunk.flags[k];
+                int nearest = chunk.nearestObstacles[k] & 0xFFFF;
+                if(nearest != CellStorage.NO_OBSTACLE){
+                    storage.setNearestObstacle(i, j, nearest);
+                }
+                if((flags & MapSnapshot.OBSERVED) != 0){
+                    boolean occupied = (flags & MapSnapshot.OCCUPIED) != 0;
+                    storage.restore(i, j, occupied);
+                    observedCells.setObserved(i, j);
+                    numberOfObservedCells.incrementAndGet();
+                    if(occupied){
+                        numberOfOccupiedCells.incrementAndGet();
+                    }
+                }
+                if((flags & MapSnapshot.WEAKLY_RESTRICTED) != 0){
+                    storage.setRestricted(i, j, true, true);
+                }
+                if((flags & MapSnapshot.RESTRICTED) != 0){
+                    storage.setRestricted(i, j, false, true);
+                    numberOfRestrictedCells.incrementAndGet();
+                }
+                if((flags & MapSnapshot.FRONTIER) != 0){
+                    storage.setFrontier(i, j, true);
+                    frontierLocations.add(PackedLocation.pack(i, j));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Locks the specified region of the map for reading. No other thread can
+     * change the cells in the region or resize the map until the region is
+     * unlocked with unlockRegionForReading. The region may be larger than the
+     * map. A thread must not lock a region while it holds another one.
+     * @param bottom
+     * @param top
+     * @param left
+     * @param right
+     * @return a token that must be passed to unlockRegionForReading
+     */
+    public long lockRegionForReading(int bottom, int top, int left, int right){
+        resizeLock.readLock().lock();
+        return regionLock.lock(bottom, top, left, right, false);
+    }
+    
+    /**
+     * Unlocks a region that was locked with lockRegionForReading
+     * @param token the value returned by lockRegionForReading
+     */
+    public void unlockRegionForReading(long token){
+        regionLock.unlock(token, false);
+        resizeLock.readLock().unlock();
+    }
+    
+    /**
+     * Returns a snapshot of the number of cells in each state. The numbers are
+     * updated together with the map, so this does not scan the map.
+     * @return 
+     */
+    public MapStatistics getStatistics(){
+        int frontierCells;
+        synchronized(frontierLocations){
+            frontierCells = frontierLocations.size();
+        }
+        return new MapStatistics(cellSize, getNumberOfCells(), numberOfObservedCells.get(),
+                numberOfOccupiedCells.get(), numberOfRestrictedCells.get(), frontierCells);
+    }
+    
+    /**
+     * Returns the total number of cells in the map
      * @return 
      */
     public int getNumberOfCells(){
-        return map.size();
+        return getNumberOfRows()*getNumberOfColumns();
     }
 
     /**
@@ -156,15 +454,49 @@ public class GridMap{
      * @return 
      */
     public Cell findCell(MapLocation location){
-        //
-        return map.get(location);
+        return findCell(location.getRow(), location.getColumn());
+    }
+    
+    /**
+     * Returns the cell at the specified row and column. Returns null if the
+     * cell is outside the map.
+     * @param row
+     * @param column
+     * @return 
+     */
+    public Cell findCell(int row, int column){
+        if(!isInsideMap(row, column)){
+            return null;
+        }
+        return storage.getCell(row, column);
+    }
+    
+    /**
+     * Returns true if the specified row and column is inside the boundaries
+     * of the map
+     * @param row
+     * @param column
+     * @return 
+     */
+    public boolean isInsideMap(int row, int column){
+        return row >= bottomRow && row <= topRow && column >= leftColumn && column <= rightColumn;
     }
 
     /**
-     * Returns the map
+     * Returns the map. If the map does not use HASHED_STORAGE, a new hash table
+     * with a Cell object for every cell in the map is created.
      * @return 
      */
     public ConcurrentHashMap<MapLocation, Cell> getMap(){
+        if(storage instanceof HashCellStorage){
+            return ((HashCellStorage)storage).getMap();
+        }
+        ConcurrentHashMap<MapLocation, Cell> map = new ConcurrentHashMap<MapLocation, Cell>();
+        for(int i = bottomRow; i <= topRow; i++) {
+            for(int j = leftColumn; j <= rightColumn; j++) {
+                map.put(new MapLocation(i, j), storage.getCell(i, j));
+            }
+        }
         return map;
     }
     
@@ -175,76 +507,724 @@ public class GridMap{
      * @param measurement 
      */
     public void addMeasurement(MapLocation location, boolean measurement) {
-        Cell measuredCell = map.get(location);
-        measuredCell.update(measurement);
+        addMeasurement(location.getRow(), location.getColumn(), measurement);
+    }
+    
+    /**
+     * See addMeasurement(MapLocation location, boolean measurement)
+     * @param row
+     * @param column
+     * @param measurement 
+     */
+    public void addMeasurement(int row, int column, boolean measurement) {
+        // The restrictions and frontier of cells up to one cell outside the
+        // weakly restricted circle can change
+        int reach = obstacleRange + 1;
+        resizeLock.readLock().lock();
+        long stripes = regionLock.lock(row - reach, row + reach, column - reach, column + reach, true);
+        try {
+            applyMeasurement(row, column, measurement);
+        }
+        finally {
+            regionLock.unlock(stripes, true);
+            resizeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds all the measurements in a batch. The measurements are added chunk
+     * by chunk, so the region around each chunk is locked once instead of
+     * once for every measurement, and the cells that are written one after
+     * another lie close together. A cell that is measured several times in
+     * the batch, such as the cells a sensor sweeps over again and again, is
+     * only updated once with all its measurements together, see
+     * OccupancyModel.update(int, int, int, boolean). With the binary model
+     * the map ends up the same as if addMeasurement had been called for each
+     * measurement.
+     * @param batch
+     */
+    public void addMeasurements(MeasurementBatch batch) {
+        if(batch.isEmpty()){
+            return;
+        }
+        long[] order = batch.sortByChunk(CHUNK_SIZE);
+        int reach = obstacleRange + 1;
+        long[] visited = visitedCells;
+        int[] hits = cellHits;
+        int[] misses = cellMisses;
+        boolean[] latest = latestMeasurements;
+        int start = 0;
+        while(start < batch.size()){
+            int end = start + 1;
+            while(end < batch.size() && order[end] >>> 32 == order[start] >>> 32){
+                end++;
+            }
+            long first = batch.getLocation((int) order[start]);
+            int bottom = Math.floorDiv(PackedLocation.getRow(first), CHUNK_SIZE) * CHUNK_SIZE;
+            int left = Math.floorDiv(PackedLocation.getColumn(first), CHUNK_SIZE) * CHUNK_SIZE;
+            resizeLock.readLock().lock();
+            long stripes = regionLock.lock(bottom - reach, bottom + CHUNK_SIZE - 1 + reach,
+                    left - reach, left + CHUNK_SIZE - 1 + reach, true);
+            try {
+                for(int i = start; i < end; i++){
+                    int index = (int) order[i];
+                    long location = batch.getLocation(index);
+                    int cell = (PackedLocation.getRow(location) - bottom) * CHUNK_SIZE
+                            + PackedLocation.getColumn(location) - left;
+                    if((visited[cell >> 6] & (1L << cell)) == 0){
+                        visited[cell >> 6] |= 1L << cell;
+                        hits[cell] = 0;
+                        misses[cell] = 0;
+                    }
+                    else if(latest[cell]){
+                        hits[cell]++;
+                    }
+                    else {
+                        misses[cell]++;
+                    }
+                    latest[cell] = batch.getMeasurement(index);
+                }
+                for(int k = 0; k < visited.length; k++){
+                    long bits = visited[k];
+                    while(bits != 0){
+                        int cell = (k << 6) + Long.numberOfTrailingZeros(bits);
+                        bits &= bits - 1;
+                        applyMeasurement(bottom + cell / CHUNK_SIZE, left + cell % CHUNK_SIZE,
+                                hits[cell], misses[cell], latest[cell]);
+                    }
+                    visited[k] = 0;
+                }
+            }
+            finally {
+                regionLock.unlock(stripes, true);
+                resizeLock.readLock().unlock();
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Updates the cell and the cells around it. The caller must hold the
+     * region around the cell for writing.
+     * @param row
+     * @param column
+     * @param measurement 
+     */
+    private void applyMeasurement(int row, int column, boolean measurement) {
+        applyMeasurement(row, column, 0, 0, measurement);
+    }
+
+    /**
+     * Updates the cell with several measurements and updates the cells
+     * around it once. The caller must hold the region around the cell for
+     * writing.
+     * @param row
+     * @param column
+     * @param hits the number of earlier measurements of an obstacle
+     * @param misses the number of earlier measurements of free space
+     * @param latest the latest measurement
+     */
+    private void applyMeasurement(int row, int column, int hits, int misses, boolean latest) {
+        boolean wasObserved = storage.isPreviouslyObserved(row, column);
+        boolean occupiedChanged = storage.update(row, column, hits, misses, latest);
 
         // If the cell changes from occupied to free or vice versa, the restricted
         // status of nearby cells are updated here:
-        if(measuredCell.stateChanged()){
-            ArrayList<MapLocation> restricted = createCircle(location, 15);
-            ArrayList<MapLocation> weaklyRestricted = createCircle(location, 25);
-            for(MapLocation location2: restricted){
-                if(measuredCell.isOccupied()){
-                    map.get(location2).addRestrictingCell(measuredCell);
+        if(occupiedChanged){
+            markChanged(row - obstacleRange, row + obstacleRange, column - obstacleRange, column + obstacleRange);
+        }
+        else if(!wasObserved){
+            markChanged(row, row, column, column);
+        }
+        if(occupiedChanged){
+            boolean occupied = storage.isOccupied(row, column);
+            numberOfOccupiedCells.addAndGet(occupied ? 1 : -1);
+            if(occupied){
+                addObstacle(row, column);
+            }
+            else {
+                removeObstacle(row, column);
+            }
+        }
+        if(occupiedChanged || !wasObserved){
+            updateFrontierAround(row, column);
+        }
+        if(!wasObserved){
+            numberOfObservedCells.incrementAndGet();
+            observedCells.setObserved(row, column);
+            markDirty(row, column);
+        }
+    }
+    
+    /**
+     * Marks the chunks overlapping the specified area as changed, so that they
+     * are copied into the next snapshot
+     * @param bottom
+     * @param top
+     * @param left
+     * @param right 
+     */
+    private void markChanged(int bottom, int top, int left, int right) {
+        synchronized(changedChunks){
+            for (int i = Math.floorDiv(bottom, CHUNK_SIZE); i <= Math.floorDiv(top, CHUNK_SIZE); i++) {
+                for (int j = Math.floorDiv(left, CHUNK_SIZE); j <= Math.floorDiv(right, CHUNK_SIZE); j++) {
+                    changedChunks.add(PackedLocation.pack(i, j));
                 }
-                else {
-                    map.get(location2).removeRestrictingCell(measuredCell);
+            }
+        }
+    }
+    
+    /**
+     * Returns the latest snapshot published with publishSnapshot. This does
+     * not lock or copy anything, so it can be called as often as needed.
+     * @return 
+     */
+    public MapSnapshot getSnapshot(){
+        return snapshot;
+    }
+    
+    /**
+     * Creates a new snapshot of the map and makes it available through
+     * getSnapshot. Only the chunks that have changed since the last snapshot
+     * are copied, the rest are shared with the last snapshot. If nothing has
+     * changed the last snapshot is returned. The cells that changed are added
+     * to the queues created with addChangeQueue. Should be called by the
+     * thread that updates the map, after each round of updates.
+     * @return the new snapshot
+     */
+    public synchronized MapSnapshot publishSnapshot(){
+        long[] changed;
+        synchronized(changedChunks){
+            changed = changedChunks.toSortedArray();
+            changedChunks.clear();
+        }
+        MapSnapshot previous = snapshot;
+        resizeLock.readLock().lock();
+        try{
+            if(changed.length == 0 && !frontierChanged
+                    && previous.getBottomRow() == bottomRow && previous.getTopRow() == topRow
+                    && previous.getLeftColumn() == leftColumn && previous.getRightColumn() == rightColumn){
+                return previous;
+            }
+            int bottomChunk = Math.floorDiv(bottomRow, CHUNK_SIZE);
+            int topChunk = Math.floorDiv(topRow, CHUNK_SIZE);
+            int leftChunk = Math.floorDiv(leftColumn, CHUNK_SIZE);
+            int rightChunk = Math.floorDiv(rightColumn, CHUNK_SIZE);
+            int columns = rightChunk - leftChunk + 1;
+            MapSnapshot.Chunk[] chunks = new MapSnapshot.Chunk[countChunks(bottomRow, topRow, leftColumn, rightColumn)];
+            for(int i = bottomChunk; i <= topChunk; i++){
+                for(int j = leftChunk; j <= rightChunk; j++){
+                    chunks[(i - bottomChunk)*columns + j - leftChunk] = previous.getChunk(i, j);
+                }
+            }
+            boolean reportChanges = !changeQueues.isEmpty();
+            ChangeCollector collector = reportChanges ? new ChangeCollector() : null;
+            for(long chunk: changed){
+                int i = PackedLocation.getRow(chunk);
+                int j = PackedLocation.getColumn(chunk);
+                if(i >= bottomChunk && i <= topChunk && j >= leftChunk && j <= rightChunk){
+                    MapSnapshot.Chunk copy = copyChunk(i, j);
+                    chunks[(i - bottomChunk)*columns + j - leftChunk] = copy;
+                    if(reportChanges){
+                        collector.compare(i, j, previous.getChunk(i, j), copy);
+                    }
                 }
             }
-            for(MapLocation location2: weaklyRestricted){
-                if(measuredCell.isOccupied()){
-                    map.get(location2).addWeaklyRestrictingCell(measuredCell);
+            long[] frontier = previous.getFrontierArray();
+            if(frontierChanged){
+                frontierChanged = false;
+                frontier = getPackedFrontierLocations();
+            }
+            snapshot = new MapSnapshot(previous.getVersion() + 1, cellSize, CHUNK_SIZE, bottomRow, topRow,
+                    leftColumn, rightColumn, chunks, frontier, getStatistics());
+            // The snapshot is set first, so that a consumer that has lost
+            // batches always finds the changes in the latest snapshot
+            if(reportChanges && collector.size > 0){
+                MapChangeBatch batch = collector.createBatch(snapshot.getVersion());
+                for(MapChangeQueue queue: changeQueues){
+                    queue.offer(batch);
+                }
+            }
+            return snapshot;
+        }
+        finally{
+            resizeLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Creates a new queue that receives the cells that change each time a
+     * snapshot is published. The map never waits for the queue, see
+     * MapChangeQueue.
+     * @param capacity the maximum number of batches in the queue
+     * @return
+     */
+    public MapChangeQueue addChangeQueue(int capacity){
+        MapChangeQueue queue = new MapChangeQueue(capacity);
+        changeQueues.add(queue);
+        return queue;
+    }
+    
+    /**
+     * Stops adding changes to a queue created with addChangeQueue
+     * @param queue 
+     */
+    public void removeChangeQueue(MapChangeQueue queue){
+        changeQueues.remove(queue);
+    }
+    
+    /**
+     * Collects the cells that differ between the old and new version of the
+     * chunks copied into a snapshot
+     */
+    private static class ChangeCollector {
+        long[] locations = new long[64];
+        byte[] oldStates = new byte[64];
+        byte[] newStates = new byte[64];
+        int size = 0;
+        
+        void compare(int chunkRow, int chunkColumn, MapSnapshot.Chunk oldChunk, MapSnapshot.Chunk newChunk){
+            for(int k = 0; k < CHUNK_SIZE*CHUNK_SIZE; k++){
+                byte oldState = oldChunk == null ? 0 : oldChunk.flags[k];
+                byte newState = newChunk.flags[k];
+                if(oldState == newState){
+                    continue;
+                }
+                if(size == locations.length){
+                    locations = Arrays.copyOf(locations, size*2);
+                    oldStates = Arrays.copyOf(oldStates, size*2);
+                    newStates = Arrays.copyOf(newStates, size*2);
+                }
+                locations[size] = PackedLocation.pack(chunkRow*CHUNK_SIZE + k/CHUNK_SIZE, chunkColumn*CHUNK_SIZE + k%CHUNK_SIZE);
+                oldStates[size] = oldState;
+                newStates[size] = newState;
+                size++;
+            }
+        }
+        
+        MapChangeBatch createBatch(long version){
+            return new MapChangeBatch(version, Arrays.copyOf(locations, size),
+                    Arrays.copyOf(oldStates, size), Arrays.copyOf(newStates, size));
+        }
+    }
+    
+    /**
+     * Returns the number of chunks needed to cover the specified area
+     */
+    private static int countChunks(int bottom, int top, int left, int right) {
+        return (Math.floorDiv(top, CHUNK_SIZE) - Math.floorDiv(bottom, CHUNK_SIZE) + 1)
+                * (Math.floorDiv(right, CHUNK_SIZE) - Math.floorDiv(left, CHUNK_SIZE) + 1);
+    }
+    
+    /**
+     * Copies the state of the cells in the specified chunk. Cells outside the
+     * map are left unobserved.
+     * @param chunkRow
+     * @param chunkColumn
+     * @return 
+     */
+    private MapSnapshot.Chunk copyChunk(int chunkRow, int chunkColumn) {
+        MapSnapshot.Chunk chunk = new MapSnapshot.Chunk(CHUNK_SIZE);
+        int bottom = Math.max(chunkRow*CHUNK_SIZE, bottomRow);
+        int top = Math.min((chunkRow+1)*CHUNK_SIZE - 1, topRow);
+        int left = Math.max(chunkColumn*CHUNK_SIZE, leftColumn);
+        int right = Math.min((chunkColumn+1)*CHUNK_SIZE - 1, rightColumn);
+        long stripes = regionLock.lock(bottom, top, left, right, false);
+        try{
+            for(int i = bottom; i <= top; i++){
+                int rowInChunk = i - chunkRow*CHUNK_SIZE;
+                for(int j = left; j <= right; j++){
+                    int columnInChunk = j - chunkColumn*CHUNK_SIZE;
+                    int flags = 0;
+                    if(storage.isPreviouslyObserved(i, j)){
+                        flags |= MapSnapshot.OBSERVED;
+                        chunk.observedRows[rowInChunk] |= 1 << columnInChunk;
+                    }
+                    if(storage.isOccupied(i, j)){
+                        flags |= MapSnapshot.OCCUPIED;
+                    }
+                    if(storage.isRestricted(i, j)){
+                        flags |= MapSnapshot.RESTRICTED;
+                    }
+                    if(storage.isWeaklyRestricted(i, j)){
+                        flags |= MapSnapshot.WEAKLY_RESTRICTED;
+                    }
+                    if(storage.isFrontier(i, j)){
+                        flags |= MapSnapshot.FRONTIER;
+                    }
+                    chunk.flags[rowInChunk*CHUNK_SIZE + columnInChunk] = (byte) flags;
+                    chunk.nearestObstacles[rowInChunk*CHUNK_SIZE + columnInChunk] = (short) storage.getNearestObstacle(i, j);
+                }
+            }
+        }
+        finally{
+            regionLock.unlock(stripes, false);
+        }
+        return chunk;
+    }
+    
+    /**
+     * Marks the chunk containing the cell at (row, column) as changed, so that
+     * it is included in the next clean up
+     * @param row
+     * @param column 
+     */
+    private void markDirty(int row, int column) {
+        synchronized(dirtyChunks){
+            dirtyChunks.add(PackedLocation.pack(Math.floorDiv(row, CHUNK_SIZE), Math.floorDiv(column, CHUNK_SIZE)));
+        }
+    }
+    
+    /**
+     * Updates the distances to the nearest obstacle around a cell that has
+     * become occupied. A wave spreads out from the cell to all cells that are
+     * closer to it than to their previous nearest obstacle.
+     * @param row
+     * @param column 
+     */
+    private void addObstacle(int row, int column) {
+        CellQueue lowered = loweredCells;
+        lowered.clear();
+        setNearestObstacle(row, column, ObstacleOffset.encode(0, 0));
+        lowered.add(row, column);
+        lowerObstacleDistances(row, column, lowered);
+    }
+    
+    /**
+     * Updates the distances to the nearest obstacle around a cell that is no
+     * longer occupied. First a wave clears all cells that had the cell as
+     * their nearest obstacle. Then the obstacles of the cells around the
+     * cleared area are spread back into it.
+     * @param row
+     * @param column 
+     */
+    private void removeObstacle(int row, int column) {
+        CellQueue raised = raisedCells;
+        CellQueue lowered = loweredCells;
+        raised.clear();
+        lowered.clear();
+        setNearestObstacle(row, column, CellStorage.NO_OBSTACLE);
+        raised.add(row, column);
+        while(!raised.isEmpty()){
+            int i = raised.getRow();
+            int j = raised.getColumn();
+            raised.remove();
+            for(int k = 0; k < NEIGHBOR_ROWS.length; k++){
+                int neighborRow = i + NEIGHBOR_ROWS[k];
+                int neighborColumn = j + NEIGHBOR_COLUMNS[k];
+                if(!canHoldObstacleDistance(neighborRow, neighborColumn)){
+                    continue;
+                }
+                int nearest = storage.getNearestObstacle(neighborRow, neighborColumn);
+                if(nearest == CellStorage.NO_OBSTACLE){
+                    continue;
+                }
+                if(neighborRow + ObstacleOffset.getRowOffset(nearest) == row
+                        && neighborColumn + ObstacleOffset.getColumnOffset(nearest) == column){
+                    setNearestObstacle(neighborRow, neighborColumn, CellStorage.NO_OBSTACLE);
+                    raised.add(neighborRow, neighborColumn);
                 }
                 else {
-                    map.get(location2).removeWeaklyRestrictingCell(measuredCell);
+                    lowered.add(neighborRow, neighborColumn);
+                }
+            }
+        }
+        lowerObstacleDistances(row, column, lowered);
+    }
+    
+    /**
+     * Spreads the nearest obstacle of each cell in the queue to its neighbors
+     * for as long as the neighbors get closer to an obstacle. Only the cells
+     * within the obstacle range of (row, column) are changed.
+     * @param row
+     * @param column
+     * @param queue 
+     */
+    private void lowerObstacleDistances(int row, int column, CellQueue queue) {
+        while(!queue.isEmpty()){
+            int i = queue.getRow();
+            int j = queue.getColumn();
+            queue.remove();
+            int nearest = storage.getNearestObstacle(i, j);
+            if(nearest == CellStorage.NO_OBSTACLE){
+                continue;
+            }
+            int obstacleRow = i + ObstacleOffset.getRowOffset(nearest);
+            int obstacleColumn = j + ObstacleOffset.getColumnOffset(nearest);
+            for(int k = 0; k < NEIGHBOR_ROWS.length; k++){
+                int neighborRow = i + NEIGHBOR_ROWS[k];
+                int neighborColumn = j + NEIGHBOR_COLUMNS[k];
+                if(Math.abs(neighborRow - row) > obstacleRange || Math.abs(neighborColumn - column) > obstacleRange
+                        || !canHoldObstacleDistance(neighborRow, neighborColumn)){
+                    continue;
+                }
+                int rowOffset = obstacleRow - neighborRow;
+                int columnOffset = obstacleColumn - neighborColumn;
+                int distance = rowOffset*rowOffset + columnOffset*columnOffset;
+                if(distance <= weaklyRestrictedDistance
+                        && distance < ObstacleOffset.squaredDistance(storage.getNearestObstacle(neighborRow, neighborColumn))){
+                    setNearestObstacle(neighborRow, neighborColumn, ObstacleOffset.encode(rowOffset, columnOffset));
+                    queue.add(neighborRow, neighborColumn);
                 }
             }
         }
     }
     
     /**
-     * Finds and returns the MapLocation of all cells that are free, not
-     * restricted and has an unobserved neighbor
+     * Returns true if the storage keeps the obstacle distance of the cell at
+     * (row, column). An unbounded storage also keeps it for cells outside the
+     * map, so that the map can grow without computing any distances.
+     * @param row
+     * @param column
      * @return 
      */
-    public ArrayList<MapLocation> getFrontierLocations() {
-        ArrayList<MapLocation> frontierLocations = new ArrayList<MapLocation>();
-        for(int i = bottomRow; i <= topRow; i++) {
-            for(int j = leftColumn; j <= rightColumn; j++) {
-                MapLocation location = new MapLocation(i, j);
-                if(map.get(location).isWeaklyTargetable()) {
-                    ArrayList<MapLocation> neighbors = findDirectNeighborCells(location);
-                    for(MapLocation neighbor: neighbors){
-                        if(!findCell(neighbor).isPreviouslyObserved()){
-                            //cell.setFrontier();
-                            frontierLocations.add(location);
-                            break;
-                        }
+    private boolean canHoldObstacleDistance(int row, int column) {
+        return storage.isUnbounded() || isInsideMap(row, column);
+    }
+    
+    /**
+     * Sets the nearest obstacle of the cell at (row, column) and updates its
+     * restricted and weakly restricted status to match the distance
+     * @param row
+     * @param column
+     * @param nearest encoded with ObstacleOffset, or CellStorage.NO_OBSTACLE
+     */
+    private void setNearestObstacle(int row, int column, int nearest) {
+        storage.setNearestObstacle(row, column, nearest);
+        int distance = ObstacleOffset.squaredDistance(nearest);
+        storage.setRestricted(row, column, true, distance <= weaklyRestrictedDistance);
+        boolean restricted = distance <= restrictedDistance;
+        if(storage.setRestricted(row, column, false, restricted) && isInsideMap(row, column)){
+            numberOfRestrictedCells.addAndGet(restricted ? 1 : -1);
+            updateFrontier(row, column);
+        }
+    }
+    
+    /**
+     * Searches the cells within the obstacle range of (row, column) for the
+     * nearest occupied cell
+     * @param row
+     * @param column
+     * @return the offset to the occupied cell encoded with ObstacleOffset, or
+     * CellStorage.NO_OBSTACLE
+     */
+    private int findNearestObstacle(int row, int column){
+        CircleStencil stencil = CircleStencil.get(obstacleRange);
+        int bottom = Math.max(row - stencil.getRadius(), bottomRow);
+        int top = Math.min(row + stencil.getRadius(), topRow);
+        int nearest = CellStorage.NO_OBSTACLE;
+        int nearestDistance = Integer.MAX_VALUE;
+        for(int i = bottom; i <= top; i++) {
+            int halfWidth = stencil.getHalfWidth(i - row);
+            int left = Math.max(column - halfWidth, leftColumn);
+            int right = Math.min(column + halfWidth, rightColumn);
+            for(int j = left; j <= right; j++) {
+                if(storage.isOccupied(i, j)){
+                    int distance = (i - row)*(i - row) + (j - column)*(j - column);
+                    if(distance < nearestDistance){
+                        nearestDistance = distance;
+                        nearest = ObstacleOffset.encode(i - row, j - column);
                     }
                 }
             }
         }
-        return frontierLocations;
+        return nearest;
+    }
+    
+    /**
+     * Returns the distance in cm from the specified location to the nearest
+     * occupied cell, or Double.POSITIVE_INFINITY if there is no occupied cell
+     * within WEAKLY_RESTRICTED_RADIUS. Locations outside the map only have a
+     * distance when the storage is unbounded.
+     * @param location
+     * @return 
+     */
+    public double getObstacleDistance(MapLocation location){
+        int row = location.getRow();
+        int column = location.getColumn();
+        int nearest = CellStorage.NO_OBSTACLE;
+        long token = lockRegionForReading(row, row, column, column);
+        try {
+            if(canHoldObstacleDistance(row, column)){
+                nearest = storage.getNearestObstacle(row, column);
+            }
+        }
+        finally {
+            unlockRegionForReading(token);
+        }
+        int distance = ObstacleOffset.squaredDistance(nearest);
+        if(distance == Integer.MAX_VALUE){
+            return Double.POSITIVE_INFINITY;
+        }
+        return Math.sqrt(distance)*cellSize;
+    }
+    
+    /**
+     * Updates the frontier status of the cell at (row, column) and of its
+     * direct neighbors. Must be called when the cell is observed for the
+     * first time or changes between occupied and free.
+     * @param row
+     * @param column 
+     */
+    private void updateFrontierAround(int row, int column) {
+        updateFrontier(row, column);
+        updateFrontier(row+1, column);
+        updateFrontier(row, column+1);
+        updateFrontier(row-1, column);
+        updateFrontier(row, column-1);
+    }
+    
+    /**
+     * Adds or removes the cell at (row, column) from the frontier locations.
+     * A cell is a frontier location if it is free, not restricted and has an
+     * unobserved direct neighbor.
+     * @param row
+     * @param column 
+     */
+    private void updateFrontier(int row, int column) {
+        if(!isInsideMap(row, column)){
+            return;
+        }
+        boolean frontier = storage.isPreviouslyObserved(row, column)
+                && !storage.isOccupied(row, column)
+                && !storage.isRestricted(row, column)
+                && hasUnobservedNeighbor(row, column);
+        if(frontier != storage.isFrontier(row, column)){
+            storage.setFrontier(row, column, frontier);
+            frontierChanged = true;
+            markChanged(row, row, column, column);
+            synchronized(frontierLocations){
+                if(frontier){
+                    frontierLocations.add(PackedLocation.pack(row, column));
+                }
+                else {
+                    frontierLocations.remove(PackedLocation.pack(row, column));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Returns true if a direct neighbor of the cell at (row, column) inside
+     * the map has not been observed
+     * @param row
+     * @param column
+     * @return 
+     */
+    private boolean hasUnobservedNeighbor(int row, int column) {
+        return (row + 1 <= topRow && !storage.isPreviouslyObserved(row+1, column))
+                || (column + 1 <= rightColumn && !storage.isPreviouslyObserved(row, column+1))
+                || (row - 1 >= bottomRow && !storage.isPreviouslyObserved(row-1, column))
+                || (column - 1 >= leftColumn && !storage.isPreviouslyObserved(row, column-1));
+    }
+    
+    /**
+     * Returns the MapLocation of all cells that are free, not restricted and
+     * has an unobserved neighbor. The frontier is updated every time the map
+     * changes, so this only copies the current frontier locations.
+     * @return 
+     */
+    public ArrayList<MapLocation> getFrontierLocations() {
+        // Sorted the same way as the cells are ordered in the map, bottom row first
+        long[] locations = getPackedFrontierLocations();
+        ArrayList<MapLocation> frontier = new ArrayList<MapLocation>(locations.length);
+        for(long location: locations){
+            frontier.add(MapLocation.unpack(location));
+        }
+        return frontier;
+    }
+    
+    /**
+     * Returns the frontier locations packed into longs, bottom row first. See
+     * getFrontierLocations and PackedLocation
+     * @return 
+     */
+    public long[] getPackedFrontierLocations() {
+        synchronized(frontierLocations){
+            return frontierLocations.toSortedArray();
+        }
     }
     
     /**
      * Returns the number of unexplored cells around the specified location
-     * within the specified radius
+     * within the specified radius. The observed cells in each row of the
+     * circle are counted with a bitmap, so the cost follows the number of rows
+     * and not the number of cells.
      * @param location
      * @param radius
      * @return 
      */
     public int countUnknownCellsAroundLocation(MapLocation location, int radius){
-        ArrayList<MapLocation> circle = createCircle(location, radius);
+        int row = location.getRow();
+        int column = location.getColumn();
+        int reach = radius/cellSize;
+        long token = lockRegionForReading(row - reach, row + reach, column - reach, column + reach);
+        try{
+            return countUnknownCells(row, column, radius);
+        }
+        finally{
+            unlockRegionForReading(token);
+        }
+    }
+    
+    /**
+     * Counts the unobserved cells within the specified radius of
+     * (row, column) without locking
+     * @param row
+     * @param column
+     * @param radius in cm
+     * @return 
+     */
+    private int countUnknownCells(int row, int column, int radius){
+        CircleStencil stencil = CircleStencil.get(radius/cellSize);
+        int bottom = Math.max(row - stencil.getRadius(), bottomRow);
+        int top = Math.min(row + stencil.getRadius(), topRow);
         int counter = 0;
-        for(MapLocation location2: circle){
-            if(!map.get(location2).isPreviouslyObserved()){
-                counter++;
+        for(int i = bottom; i <= top; i++) {
+            int halfWidth = stencil.getHalfWidth(i - row);
+            int left = Math.max(column - halfWidth, leftColumn);
+            int right = Math.min(column + halfWidth, rightColumn);
+            if(left <= right){
+                counter += right - left + 1 - observedCells.countObserved(i, left, right);
             }
         }
         return counter;
     }
     
+    /**
+     * Calls the visitor for every cell within the specified radius of the
+     * specified location. Cells outside the boundaries of the map are not
+     * visited. Nothing is allocated, so this should be used instead of
+     * creating a circle in places where performance matters. The circle is
+     * locked for reading while it is visited, so the visitor must not change
+     * the map.
+     * @param location
+     * @param radius in cm
+     * @param visitor 
+     */
+    public void visitCircle(MapLocation location, int radius, CellVisitor visitor){
+        int row = location.getRow();
+        int column = location.getColumn();
+        CircleStencil stencil = CircleStencil.get(radius/cellSize);
+        long token = lockRegionForReading(row - stencil.getRadius(), row + stencil.getRadius(),
+                column - stencil.getRadius(), column + stencil.getRadius());
+        try{
+            int bottom = Math.max(row - stencil.getRadius(), bottomRow);
+            int top = Math.min(row + stencil.getRadius(), topRow);
+            for(int i = bottom; i <= top; i++) {
+                int halfWidth = stencil.getHalfWidth(i - row);
+                int left = Math.max(column - halfWidth, leftColumn);
+                int right = Math.min(column + halfWidth, rightColumn);
+                for(int j = left; j <= right; j++) {
+                    visitor.visit(i, j);
+                }
+            }
+        }
+        finally{
+            unlockRegionForReading(token);
+        }
+    }
+    
     /**
      * See findLocationInMap(Position position).
      * @param position
@@ -260,27 +1240,30 @@ public class GridMap{
      * @return 
      */
     public MapLocation findLocationInMap(Position position) {
-        int row = 0;
-        if(position.getYValue() >= 0){
-            row = (int)(position.getYValue()/cellSize);
-        }else{
-            if(position.getYValue()%cellSize == 0){
-                row = (int)(position.getYValue()/cellSize);
-            }else{
-                row = (int)(position.getYValue()/cellSize)-1;
-            }
-        }
-        int column = 0;
-        if(position.getXValue() >= 0){
-            column = (int)(position.getXValue()/cellSize);
-        }else{
-            if(position.getXValue()%cellSize == 0){
-                column = (int)(position.getXValue()/cellSize);
-            }else{
-                column = (int)(position.getXValue()/cellSize)-1;
-            }
+        return MapLocation.unpack(findPackedLocationInMap(position));
+    }
+    
+    /**
+     * Returns the location that corresponds to the specified position packed
+     * into a long. See PackedLocation
+     * @param position
+     * @return 
+     */
+    public long findPackedLocationInMap(Position position) {
+        return PackedLocation.pack(findIndex(position.getYValue()), findIndex(position.getXValue()));
+    }
+    
+    /**
+     * Returns the row or column of the cell containing the specified y or x
+     * value
+     * @param value in cm
+     * @return 
+     */
+    private int findIndex(double value) {
+        if(value >= 0 || value%cellSize == 0){
+            return (int)(value/cellSize);
         }
-        return new MapLocation(row, column);
+        return (int)(value/cellSize)-1;
     }
     
     /**
@@ -293,34 +1276,13 @@ public class GridMap{
      * @return 
      */
     ArrayList<MapLocation> createCircle(MapLocation location, int radius){
-        ArrayList<MapLocation> circle = new ArrayList<MapLocation>();
-        radius = radius/cellSize;
-        int row = location.getRow();
-        int column = location.getColumn();
-        int top = row + radius;
-        if (top > topRow) {
-            top = topRow;
-        }
-        int bottom = row - radius;
-        if (bottom < bottomRow) {
-            bottom = bottomRow;
-        }
-        int right = column + radius;
-        if (right > rightColumn) {
-            right = rightColumn;
-        }
-        int left = column - radius;
-        if (left < leftColumn) {
-            left = leftColumn;
-        }
-        for(int i = bottom; i <= top; i++) {
-            for(int j = left; j <= right; j++) {
-                MapLocation otherLocation = new MapLocation(i, j);
-                if((i-row)*(i-row)+(j-column)*(j-column) <= radius*radius){
-                    circle.add(otherLocation);
-                }
+        final ArrayList<MapLocation> circle = new ArrayList<MapLocation>();
+        visitCircle(location, radius, new CellVisitor() {
+            @Override
+            public void visit(int row, int column) {
+                circle.add(new MapLocation(row, column));
             }
-        }
+        });
         return circle;
     }
     
@@ -330,9 +1292,28 @@ public class GridMap{
      * @param position 
      */
     public void resize(Position position) {
-        MapLocation location = findLocationInMap(position);
-        int row = location.getRow();
-        int column = location.getColumn();
+        long location = findPackedLocationInMap(position);
+        int row = PackedLocation.getRow(location);
+        int column = PackedLocation.getColumn(location);
+        if (isInsideMap(row, column)) {
+            return;
+        }
+        resizeLock.writeLock().lock();
+        try {
+            grow(row, column);
+        }
+        finally {
+            resizeLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Adds rows and columns so that (row, column) is inside the map. The
+     * caller must hold the resize lock for writing.
+     * @param row
+     * @param column 
+     */
+    private void grow(int row, int column) {
         if (row > topRow) {
             addRowsTop(row-topRow);
         }
@@ -352,27 +1333,12 @@ public class GridMap{
      * @param numberOfRows 
      */
     private void addRowsBottom(int numberOfRows) {
-        for (int i = bottomRow-numberOfRows; i < bottomRow; i++) {
-            for (int j = leftColumn; j <= rightColumn; j++) {
-                MapLocation location = new MapLocation(i,j);
-                map.put(location, new Cell());
-                ArrayList<MapLocation> restrictedCircle = createCircle(location, 15);
-                for(MapLocation otherLoc: restrictedCircle){
-                    if(map.get(otherLoc).isOccupied()){
-                        map.get(location).addRestrictingCell(map.get(otherLoc));
-                        break;
-                    }
-                }
-                ArrayList<MapLocation> weaklyRestrictedCircle = createCircle(location, 25);
-                for(MapLocation otherLoc: weaklyRestrictedCircle){
-                    if(map.get(otherLoc).isOccupied()){
-                        map.get(location).addWeaklyRestrictingCell(map.get(otherLoc));
-                        break;
-                    }
-                }
-            }
-        }
+        addCells(bottomRow-numberOfRows, bottomRow-1, leftColumn, rightColumn);
         bottomRow -= numberOfRows;
+        for (int j = leftColumn; j <= rightColumn; j++) {
+            updateFrontier(bottomRow+numberOfRows, j);
+        }
+        markEdgeDirty(bottomRow+numberOfRows, bottomRow+numberOfRows, leftColumn, rightColumn);
     }
     
      /**
@@ -380,27 +1346,12 @@ public class GridMap{
      * @param numberOfRows 
      */
     private void addRowsTop(int numberOfRows) {
-        for (int i = topRow+1; i <= topRow+numberOfRows; i++) {
-            for (int j = leftColumn; j <= rightColumn; j++) {
-                MapLocation location = new MapLocation(i,j);
-                map.put(location, new Cell());
-                ArrayList<MapLocation> restrictedCircle = createCircle(location, 15);
-                for(MapLocation otherLoc: restrictedCircle){
-                    if(map.get(otherLoc).isOccupied()){
-                        map.get(location).addRestrictingCell(map.get(otherLoc));
-                        break;
-                    }
-                }
-                ArrayList<MapLocation> weaklyRestrictedCircle = createCircle(location, 25);
-                for(MapLocation otherLoc: weaklyRestrictedCircle){
-                    if(map.get(otherLoc).isOccupied()){
-                        map.get(location).addWeaklyRestrictingCell(map.get(otherLoc));
-                        break;
-                    }
-                }
-            }
-        }
+        addCells(topRow+1, topRow+numberOfRows, leftColumn, rightColumn);
         topRow += numberOfRows;
+        for (int j = leftColumn; j <= rightColumn; j++) {
+            updateFrontier(topRow-numberOfRows, j);
+        }
+        markEdgeDirty(topRow-numberOfRows, topRow-numberOfRows, leftColumn, rightColumn);
     }
     
      /**
@@ -408,27 +1359,12 @@ public class GridMap{
      * @param numberOfRows 
      */
     private void addColumnsLeft(int numberOfColumns) {
+        addCells(bottomRow, topRow, leftColumn-numberOfColumns, leftColumn-1);
+        leftColumn -= numberOfColumns;
         for (int i = bottomRow; i <= topRow; i++) {
-            for (int j = leftColumn-numberOfColumns; j < leftColumn; j++) {
-                MapLocation location = new MapLocation(i,j);
-                map.put(location, new Cell());
-                ArrayList<MapLocation> restrictedCircle = createCircle(location, 15);
-                for(MapLocation otherLoc: restrictedCircle){
-                    if(map.get(otherLoc).isOccupied()){
-                        map.get(location).addRestrictingCell(map.get(otherLoc));
-                        break;
-                    }
-                }
-                ArrayList<MapLocation> weaklyRestrictedCircle = createCircle(location, 25);
-                for(MapLocation otherLoc: weaklyRestrictedCircle){
-                    if(map.get(otherLoc).isOccupied()){
-                        map.get(location).addWeaklyRestrictingCell(map.get(otherLoc));
-                        break;
-                    }
-                }
-            }
+            updateFrontier(i, leftColumn+numberOfColumns);
         }
-        leftColumn -= numberOfColumns;
+        markEdgeDirty(bottomRow, topRow, leftColumn+numberOfColumns, leftColumn+numberOfColumns);
     }
     
     /**
@@ -436,27 +1372,114 @@ public class GridMap{
      * @param numberOfRows 
      */
     private void addColumnsRight(int numberOfColumns) {
+        addCells(bottomRow, topRow, rightColumn+1, rightColumn+numberOfColumns);
+        rightColumn += numberOfColumns;
         for (int i = bottomRow; i <= topRow; i++) {
-            for (int j = rightColumn+1; j <= rightColumn+numberOfColumns; j++) {
-                MapLocation location = new MapLocation(i,j);
-                map.put(location, new Cell());
-                ArrayList<MapLocation> restrictedCircle = createCircle(location, 15);
-                for(MapLocation otherLoc: restrictedCircle){
-                    if(map.get(otherLoc).isOccupied()){
-                        map.get(location).addRestrictingCell(map.get(otherLoc));
-                        break;
-                    }
+            updateFrontier(i, rightColumn-numberOfColumns);
+        }
+        markEdgeDirty(bottomRow, topRow, rightColumn-numberOfColumns, rightColumn-numberOfColumns);
+    }
+    
+    /**
+     * Marks the chunks along an old edge of the map as changed. New unobserved
+     * cells next to observed cells at the edge may have to be cleaned up.
+     * @param bottom
+     * @param top
+     * @param left
+     * @param right 
+     */
+    private void markEdgeDirty(int bottom, int top, int left, int right) {
+        for (int i = Math.floorDiv(bottom, CHUNK_SIZE); i <= Math.floorDiv(top, CHUNK_SIZE); i++) {
+            for (int j = Math.floorDiv(left, CHUNK_SIZE); j <= Math.floorDiv(right, CHUNK_SIZE); j++) {
+                synchronized(dirtyChunks){
+                    dirtyChunks.add(PackedLocation.pack(i, j));
                 }
-                ArrayList<MapLocation> weaklyRestrictedCircle = createCircle(location, 25);
-                for(MapLocation otherLoc: weaklyRestrictedCircle){
-                    if(map.get(otherLoc).isOccupied()){
-                        map.get(location).addWeaklyRestrictingCell(map.get(otherLoc));
-                        break;
+            }
+        }
+    }
+    
+    /**
+     * Creates new cells in the specified area, which lies just outside the
+     * current boundaries of the map. The occupied cells in the map that are
+     * close enough to the new area are found in one pass over the band of the
+     * map along the area, and the distance to each of them is stamped into
+     * the new cells around it. The new cells then get their nearest obstacle
+     * and restrictions from the stamped distances. An unbounded storage
+     * already has these restrictions, so then the restricted cells in the new
+     * area are only counted.
+     * @param bottom
+     * @param top
+     * @param left
+     * @param right 
+     */
+    private void addCells(int bottom, int top, int left, int right) {
+        storage.addCells(bottom, top, left, right);
+        markChanged(bottom, top, left, right);
+        if (storage.isUnbounded()) {
+            for (int i = bottom; i <= top; i++) {
+                for (int j = left; j <= right; j++) {
+                    if (storage.isRestricted(i, j)) {
+                        numberOfRestrictedCells.incrementAndGet();
                     }
                 }
             }
+            return;
+        }
+        CircleStencil stencil = CircleStencil.get(obstacleRange);
+        int range = stencil.getRadius();
+        int bandBottom = Math.max(bottom - range, bottomRow);
+        int bandTop = Math.min(top + range, topRow);
+        int bandLeft = Math.max(left - range, leftColumn);
+        int bandRight = Math.min(right + range, rightColumn);
+        // The obstacles are stamped row by row, and a cell only takes a new
+        // obstacle if it is strictly closer, the same order findNearestObstacle
+        // would find them in
+        for (int i = bandBottom; i <= bandTop; i++) {
+            for (int j = bandLeft; j <= bandRight; j++) {
+                if (storage.isOccupied(i, j)) {
+                    stampObstacle(i, j, bottom, top, left, right, stencil);
+                }
+            }
+        }
+        for (int i = bottom; i <= top; i++) {
+            for (int j = left; j <= right; j++) {
+                int nearest = storage.getNearestObstacle(i, j);
+                if (nearest == CellStorage.NO_OBSTACLE) {
+                    continue;
+                }
+                int distance = ObstacleOffset.squaredDistance(nearest);
+                storage.setRestricted(i, j, true, distance <= weaklyRestrictedDistance);
+                if (storage.setRestricted(i, j, false, distance <= restrictedDistance)) {
+                    numberOfRestrictedCells.incrementAndGet();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Sets the occupied cell at (row, column) as the nearest obstacle of the
+     * cells in the specified area that are within the stencil around it and
+     * have no closer obstacle. Only the nearest obstacles are set, not the
+     * restrictions.
+     * @param row
+     * @param column
+     * @param bottom
+     * @param top
+     * @param left
+     * @param right
+     * @param stencil 
+     */
+    private void stampObstacle(int row, int column, int bottom, int top, int left, int right, CircleStencil stencil) {
+        int range = stencil.getRadius();
+        for (int i = Math.max(bottom, row - range); i <= Math.min(top, row + range); i++) {
+            int halfWidth = stencil.getHalfWidth(i - row);
+            for (int j = Math.max(left, column - halfWidth); j <= Math.min(right, column + halfWidth); j++) {
+                int distance = (row - i)*(row - i) + (column - j)*(column - j);
+                if (distance < ObstacleOffset.squaredDistance(storage.getNearestObstacle(i, j))) {
+                    storage.setNearestObstacle(i, j, ObstacleOffset.encode(row - i, column - j));
+                }
+            }
         }
-        rightColumn += numberOfColumns;
     }
     
     /**
@@ -522,18 +1545,69 @@ public class GridMap{
     }
     
     /**
-     * Fills in small unexplored areas of the map with free space
+     * Fills in small unexplored areas of the map with free space. Only the
+     * parts of the map where cells have been observed since the last clean up
+     * are searched.
      */
     public void cleanUp(){
-        for(int i = bottomRow; i <= topRow; i++) {
-            for(int j = leftColumn; j <= rightColumn; j++) {
-                MapLocation location = new MapLocation(i, j);
-                if(!map.get(location).isPreviouslyObserved()){
-                    ArrayList<MapLocation> neighbors = findDirectNeighborCells(location);
-                    for(MapLocation neighbor: neighbors){
-                        if(map.get(neighbor).isPreviouslyObserved()){
-                            if(countUnknownCellsAroundLocation(location, 5)*cellSize*cellSize < 23){
-                                map.get(location).update(false);
+        long[] chunks;
+        synchronized(dirtyChunks){
+            chunks = dirtyChunks.toSortedArray();
+            dirtyChunks.clear();
+        }
+        
+        // Unobserved cells just outside a chunk can be affected by changes inside it
+        int margin = Math.max(5/cellSize, 1);
+        // A filled cell updates the frontier of its neighbors, which reads
+        // their neighbors, so cells two steps outside the area are read. The
+        // unknown cells are counted in observedCells, which needs no lock.
+        int reach = margin + 2;
+        NeighborCursor cursor = new NeighborCursor(this);
+        resizeLock.readLock().lock();
+        try {
+            for(long chunk: chunks){
+                int chunkRow = PackedLocation.getRow(chunk);
+                int chunkColumn = PackedLocation.getColumn(chunk);
+                int bottom = Math.max(chunkRow*CHUNK_SIZE - margin, bottomRow);
+                int top = Math.min((chunkRow+1)*CHUNK_SIZE - 1 + margin, topRow);
+                int left = Math.max(chunkColumn*CHUNK_SIZE - margin, leftColumn);
+                int right = Math.min((chunkColumn+1)*CHUNK_SIZE - 1 + margin, rightColumn);
+                long stripes = regionLock.lock(bottom - reach, top + reach, left - reach, right + reach, true);
+                try {
+                    cleanUpArea(bottom, top, left, right, cursor);
+                }
+                finally {
+                    regionLock.unlock(stripes, true);
+                }
+            }
+        }
+        finally {
+            resizeLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Fills in small unexplored areas with free space inside the specified area
+     * @param bottom
+     * @param top
+     * @param left
+     * @param right 
+     * @param cursor reused for the neighbors of every cell
+     */
+    private void cleanUpArea(int bottom, int top, int left, int right, NeighborCursor cursor){
+        for(int i = bottom; i <= top; i++) {
+            for(int j = left; j <= right; j++) {
+                if(!storage.isPreviouslyObserved(i, j)){
+                    cursor.reset(i, j, NeighborCursor.DIRECT_NEIGHBORS);
+                    while(cursor.next()){
+                        if(storage.isPreviouslyObserved(cursor.getRow(), cursor.getColumn())){
+                            if(countUnknownCells(i, j, 5)*cellSize*cellSize < 23){
+                                storage.update(i, j, false);
+                                numberOfObservedCells.incrementAndGet();
+                                markChanged(i, i, j, j);
+                                observedCells.setObserved(i, j);
+                                updateFrontierAround(i, j);
+                                markDirty(i, j);
                             }
                             break;
                         }
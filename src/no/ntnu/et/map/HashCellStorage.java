@@ -0,0 +1,135 @@
+/*
+ * This code is written as a part of a Master Thesis
+ * the spring of 2016.
+ *
+ * Eirik Thon(Master 2016 @ NTNU)
+ */
+package no.ntnu.et.map;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cell storage where every cell is a Cell object in a hash table of
+ * MapLocations and Cells. This is the original representation of the map.
+ *
+ * @author Eirik Thon
+ */
+class HashCellStorage implements CellStorage {
+    private ConcurrentHashMap<MapLocation, Cell> map;
+    private final OccupancyModel model;
+
+    HashCellStorage(OccupancyModel model) {
+        map = new ConcurrentHashMap<MapLocation, Cell>();
+        this.model = model;
+    }
+
+    /**
+     * Returns the hash table containing the cells
+     * @return
+     */
+    ConcurrentHashMap<MapLocation, Cell> getMap() {
+        return map;
+    }
+
+    @Override
+    public void addCells(int bottomRow, int topRow, int leftColumn, int rightColumn) {
+        for (int i = bottomRow; i <= topRow; i++) {
+            for (int j = leftColumn; j <= rightColumn; j++) {
+                map.put(new MapLocation(i, j), new Cell());
+            }
+        }
+    }
+
+    @Override
+    public boolean isUnbounded() {
+        return false;
+    }
+
+    @Override
+    public Cell getCell(int row, int column) {
+        return map.get(new MapLocation(row, column));
+    }
+
+    @Override
+    public boolean update(int row, int column, boolean measurement) {
+        return update(row, column, 0, 0, measurement);
+    }
+
+    @Override
+    public boolean update(int row, int column, int hits, int misses, boolean latest) {
+        Cell cell = getCell(row, column);
+        boolean wasOccupied = cell.isOccupied();
+        cell.update(hits, misses, latest, model);
+        return cell.isOccupied() != wasOccupied;
+    }
+
+    @Override
+    public void restore(int row, int column, boolean occupied) {
+        getCell(row, column).restore(occupied, model);
+    }
+
+    @Override
+    public int getNearestObstacle(int row, int column) {
+        return getCell(row, column).getNearestObstacle();
+    }
+
+    @Override
+    public void setNearestObstacle(int row, int column, int nearestObstacle) {
+        getCell(row, column).setNearestObstacle(nearestObstacle);
+    }
+
+    @Override
+    public boolean setRestricted(int row, int column, boolean weakly, boolean restricted) {
+        Cell cell = getCell(row, column);
+        if (weakly) {
+            if (cell.isWeaklyRestricted() == restricted) {
+                return false;
+            }
+            cell.setWeaklyRestricted(restricted);
+        } else {
+            if (cell.isRestricted() == restricted) {
+                return false;
+            }
+            if (restricted) {
+                cell.setRestricted();
+            } else {
+                cell.setUnrestricted();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isPreviouslyObserved(int row, int column) {
+        return getCell(row, column).isPreviouslyObserved();
+    }
+
+    @Override
+    public boolean isOccupied(int row, int column) {
+        return getCell(row, column).isOccupied();
+    }
+
+    @Override
+    public boolean isRestricted(int row, int column) {
+        return getCell(row, column).isRestricted();
+    }
+
+    @Override
+    public boolean isWeaklyRestricted(int row, int column) {
+        return getCell(row, column).isWeaklyRestricted();
+    }
+
+    @Override
+    public boolean isFrontier(int row, int column) {
+        return getCell(row, column).isFrontierPoint();
+    }
+
+    @Override
+    public void setFrontier(int row, int column, boolean frontier) {
+        if (frontier) {
+            getCell(row, column).setFrontier();
+        } else {
+            getCell(row, column).setNotFrontier();
+        }
+    }
+}
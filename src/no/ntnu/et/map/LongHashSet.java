@@ -0,0 +1,175 @@
+/*
+ * This code is written as a part of a Master Thesis
+ * the spring of 2016.
+ *
+ * Eirik Thon(Master 2016 @ NTNU)
+ */
+package no.ntnu.et.map;
+
+import java.util.Arrays;
+
+/**
+ * Hash set of primitive longs, used to store packed locations without
+ * creating a MapLocation and a Long for every element. Uses open addressing
+ * with linear probing. The class is not thread safe.
+ *
+ * @author Eirik Thon
+ */
+public class LongHashSet {
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] keys;
+    private int size;
+    private boolean containsEmpty;
+
+    /**
+     * Creates a new empty set
+     */
+    public LongHashSet() {
+        keys = new long[16];
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+        containsEmpty = false;
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & (keys.length - 1);
+    }
+
+    /**
+     * Adds the value to the set. Returns true if it was not already in the set
+     * @param key
+     * @return
+     */
+    public boolean add(long key) {
+        if (key == EMPTY) {
+            if (containsEmpty) {
+                return false;
+            }
+            containsEmpty = true;
+            size++;
+            return true;
+        }
+        int i = slot(key);
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key) {
+                return false;
+            }
+            i = (i + 1) & (keys.length - 1);
+        }
+        keys[i] = key;
+        size++;
+        if (size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the value is in the set
+     * @param key
+     * @return
+     */
+    public boolean contains(long key) {
+        if (key == EMPTY) {
+            return containsEmpty;
+        }
+        int i = slot(key);
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key) {
+                return true;
+            }
+            i = (i + 1) & (keys.length - 1);
+        }
+        return false;
+    }
+
+    /**
+     * Removes the value from the set. Returns true if it was in the set
+     * @param key
+     * @return
+     */
+    public boolean remove(long key) {
+        if (key == EMPTY) {
+            if (!containsEmpty) {
+                return false;
+            }
+            containsEmpty = false;
+            size--;
+            return true;
+        }
+        int mask = keys.length - 1;
+        int i = slot(key);
+        while (keys[i] != key) {
+            if (keys[i] == EMPTY) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        // Move back the following keys that would not be found after the removal
+        int j = (i + 1) & mask;
+        while (keys[j] != EMPTY) {
+            int home = slot(keys[j]);
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                i = j;
+            }
+            j = (j + 1) & mask;
+        }
+        keys[i] = EMPTY;
+        size--;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all values from the set
+     */
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+        containsEmpty = false;
+    }
+
+    /**
+     * Returns the values in the set in ascending order
+     * @return
+     */
+    public long[] toSortedArray() {
+        long[] values = new long[size];
+        int n = 0;
+        if (containsEmpty) {
+            values[n++] = EMPTY;
+        }
+        for (long key : keys) {
+            if (key != EMPTY) {
+                values[n++] = key;
+            }
+        }
+        Arrays.sort(values);
+        return values;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        for (long key : oldKeys) {
+            if (key != EMPTY) {
+                int i = slot(key);
+                while (keys[i] != EMPTY) {
+                    i = (i + 1) & (keys.length - 1);
+                }
+                keys[i] = key;
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * This code is written as a part of a Master Thesis
+ * the spring of 2016.
+ *
+ * Eirik Thon(Master 2016 @ NTNU)
+ */
+package no.ntnu.et.map;
+
+/**
+ * The cells that changed between two snapshots of a GridMap. For every changed
+ * cell the batch holds its location and its state before and after the
+ * change. The states are combinations of the flags in MapSnapshot. A batch is
+ * never changed after it has been created, so the same batch is given to all
+ * the queues registered on the map.
+ *
+ * @author Eirik Thon
+ */
+public class MapChangeBatch {
+    private final long version;
+    private final long[] locations;
+    private final byte[] oldStates;
+    private final byte[] newStates;
+
+    MapChangeBatch(long version, long[] locations, byte[] oldStates, byte[] newStates) {
+        this.version = version;
+        this.locations = locations;
+        this.oldStates = oldStates;
+        this.newStates = newStates;
+    }
+
+    /**
+     * Returns the version of the snapshot the changes lead to
+     * @return
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the number of changed cells
+     * @return
+     */
+    public int size() {
+        return locations.length;
+    }
+
+    public int getRow(int index) {
+        return PackedLocation.getRow(locations[index]);
+    }
+
+    public int getColumn(int index) {
+        return PackedLocation.getColumn(locations[index]);
+    }
+
+    /**
+     * Returns the location of a changed cell, packed with PackedLocation
+     * @param index
+     * @return
+     */
+    public long getPackedLocation(int index) {
+        return locations[index];
+    }
+
+    public MapLocation getLocation(int index) {
+        return MapLocation.unpack(locations[index]);
+    }
+
+    public int getOldState(int index) {
+        return oldStates[index];
+    }
+
+    public int getNewState(int index) {
+        return newStates[index];
+    }
+
+    /**
+     * Returns true if the specified flag was set by the change
+     * @param index
+     * @param flag one of the flags in MapSnapshot
+     * @return
+     */
+    public boolean wasSet(int index, int flag) {
+        return (oldStates[index] & flag) == 0 && (newStates[index] & flag) != 0;
+    }
+
+    /**
+     * Returns true if the specified flag was cleared by the change
+     * @param index
+     * @param flag one of the flags in MapSnapshot
+     * @return
+     */
+    public boolean wasCleared(int index, int flag) {
+        return (oldStates[index] & flag) != 0 && (newStates[index] & flag) == 0;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * This code is written as a part of a Master Thesis
+ * the spring of 2016.
+ *
+ * Eirik Thon(Master 2016 @ NTNU)
+ */
+package no.ntnu.et.map;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Bounded queue of MapChangeBatches for one consumer of a GridMap. Queues are
+ * created with GridMap.addChangeQueue, and the map adds a batch to every queue
+ * each time it publishes a new snapshot. The map never waits for a consumer.
+ * If a queue is full the batch is dropped and the queue is marked as
+ * overflowed. The consumer must then read what it needs from the latest
+ * snapshot instead of the lost batches.
+ *
+ * Usage:
+ * <pre>
+ * if(queue.checkOverflow()){
+ *     ... read everything from map.getSnapshot() ...
+ * }
+ * MapChangeBatch batch;
+ * while((batch = queue.poll()) != null){
+ *     ... only the changed cells ...
+ * }
+ * </pre>
+ *
+ * @author Eirik Thon
+ */
+public class MapChangeQueue {
+    private final ArrayBlockingQueue<MapChangeBatch> batches;
+    private final AtomicBoolean overflowed;
+
+    MapChangeQueue(int capacity) {
+        batches = new ArrayBlockingQueue<MapChangeBatch>(capacity);
+        overflowed = new AtomicBoolean(false);
+    }
+
+    /**
+     * Adds a batch to the queue without waiting. Marks the queue as
+     * overflowed if it is full.
+     * @param batch
+     */
+    void offer(MapChangeBatch batch) {
+        if (!batches.offer(batch)) {
+            overflowed.set(true);
+        }
+    }
+
+    /**
+     * Returns the oldest batch in the queue, or null if the queue is empty
+     * @return
+     */
+    public MapChangeBatch poll() {
+        return batches.poll();
+    }
+
+    /**
+     * Returns true if batches have been dropped since the last time this was
+     * called. The batches still in the queue are removed, since the consumer
+     * has to start over from the latest snapshot anyway.
+     * @return
+     */
+    public boolean checkOverflow() {
+        if (!overflowed.getAndSet(false)) {
+            return false;
+        }
+        batches.clear();
+        return true;
+    }
+
+    /**
+     * Returns the number of batches waiting in the queue
+     * @return
+     */
+    public int size() {
+        return batches.size();
+    }
+}
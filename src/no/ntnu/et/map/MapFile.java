@@ -0,0 +1,429 @@
+/*
+ * This code is written as a part of a Master Thesis
+ * the spring of 2016.
+ *
+ * Eirik Thon(Master 2016 @ NTNU)
+ */
+package no.ntnu.et.map;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * File that holds a saved GridMap. The file is written from the snapshots of
+ * the map, see GridMap.publishSnapshot, so saving never locks the map. Each
+ * chunk of the snapshot is stored as a fixed size record, and a record is only
+ * written again when its chunk has changed since the last flush. The records
+ * are accessed through memory-mapped segments of the file, so neither saving
+ * nor opening a map parses anything.
+ *
+ * Usage:
+ * <pre>
+ * MapFile file = MapFile.create(path);
+ * ...
+ * file.flush(map.getSnapshot()); // every few seconds
+ * ...
+ * MapFile file = MapFile.open(path);
+ * GridMap map = new GridMap(file.readSnapshot(), GridMap.TILED_STORAGE, GridMap.BINARY_OCCUPANCY);
+ * </pre>
+ *
+ * The file starts with two copies of the header, followed by the record
+ * slots. A record holds the row and column of the chunk, the number of the
+ * flush that wrote it, the flags of its cells (see MapSnapshot), the offsets
+ * to their nearest obstacles (see ObstacleOffset) and a checksum. A flush
+ * never writes over a record of the previous flush. Changed chunks are written
+ * to slots that hold nothing or only replaced records, and then the header
+ * with the new flush number is written to the copy that does not hold the
+ * previous flush. When the file is opened, the newest header with a correct
+ * checksum is used, and for each chunk the newest record with a correct
+ * checksum that is not newer than the header. A file that is cut off during a
+ * flush therefore still holds the previous flush, as long as the disk does
+ * not lose data that has been forced to it.
+ *
+ * Only one MapFile may use a file at a time, also within one program. Java
+ * can not unmap a buffer, so the mapped segments of the file are released by
+ * the garbage collector some time after close. On Windows the file can not be
+ * deleted or truncated until then. The file is never truncated by MapFile, so
+ * create can be called for a file that is still mapped.
+ *
+ * @author Eirik Thon
+ */
+public class MapFile implements Closeable {
+    private static final int MAGIC = 0x53534D50; // "SSMP"
+    private static final int FORMAT_VERSION = 2;
+    // The size of one copy of the header
+    private static final int HEADER_SIZE = 64;
+    // The file is mapped in segments of about this size
+    private static final int SEGMENT_SIZE = 1 << 20;
+
+    // Byte positions of the values in a copy of the header
+    private static final int MAGIC_POSITION = 0;
+    private static final int FORMAT_VERSION_POSITION = 4;
+    private static final int CELL_SIZE_POSITION = 8;
+    private static final int CHUNK_SIZE_POSITION = 12;
+    private static final int BOTTOM_ROW_POSITION = 16;
+    private static final int TOP_ROW_POSITION = 20;
+    private static final int LEFT_COLUMN_POSITION = 24;
+    private static final int RIGHT_COLUMN_POSITION = 28;
+    private static final int VERSION_POSITION = 32;
+    private static final int FLUSH_POSITION = 40;
+    private static final int SLOTS_POSITION = 48;
+    private static final int HEADER_CHECKSUM_POSITION = 60;
+
+    // Byte positions of the values in a record, the cells follow the flush
+    private static final int RECORD_FLUSH_POSITION = 8;
+    private static final int RECORD_CELLS_POSITION = 16;
+
+    private final FileChannel channel;
+    // Both copies of the header
+    private final MappedByteBuffer header;
+    private final int chunkSize;
+    private final int recordSize;
+    private final int recordsPerSegment;
+    private final ArrayList<MappedByteBuffer> segments;
+    // Slot of the newest record of each chunk
+    private final HashMap<Long, Integer> records;
+    // Slots that only hold replaced records
+    private final ArrayList<Integer> freeSlots;
+    private final CRC32 checksum;
+    private int numberOfSlots;
+    // The number of the last flush that was written to the header, and of
+    // the last flush that was started
+    private long committedFlush;
+    private long lastFlush;
+    // The map in the header of the last flush
+    private int cellSize;
+    private int bottomRow;
+    private int topRow;
+    private int leftColumn;
+    private int rightColumn;
+    private long version;
+    private MapSnapshot flushed;
+
+    private MapFile(FileChannel channel, int chunkSize) throws IOException {
+        this.channel = channel;
+        this.chunkSize = chunkSize;
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, 2 * HEADER_SIZE);
+        recordSize = RECORD_CELLS_POSITION + 3 * chunkSize * chunkSize + 4;
+        recordsPerSegment = Math.max(1, SEGMENT_SIZE / recordSize);
+        segments = new ArrayList<MappedByteBuffer>();
+        records = new HashMap<Long, Integer>();
+        freeSlots = new ArrayList<Integer>();
+        checksum = new CRC32();
+    }
+
+    /**
+     * Creates a new empty map file. The map in an existing file is replaced.
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    public static MapFile create(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        MapFile file = new MapFile(channel, GridMap.CHUNK_SIZE);
+        // Old records are left in the file, but no header refers to them
+        file.writeHeader(0);
+        file.writeHeader(1);
+        file.committedFlush = 1;
+        file.lastFlush = 1;
+        return file;
+    }
+
+    /**
+     * Opens an existing map file. New flushes are added to the map in the
+     * file.
+     * @param path
+     * @return
+     * @throws IOException if the file is not a map file
+     */
+    public static MapFile open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() < 2 * HEADER_SIZE) {
+            channel.close();
+            throw new IOException("Not a map file: " + path);
+        }
+        MapFile file = new MapFile(channel, GridMap.CHUNK_SIZE);
+        ByteBuffer newest = null;
+        for (int i = 0; i < 2; i++) {
+            ByteBuffer copy = file.getHeader(i);
+            if (copy.getInt(MAGIC_POSITION) == MAGIC && copy.getInt(FORMAT_VERSION_POSITION) == FORMAT_VERSION
+                    && copy.getInt(CHUNK_SIZE_POSITION) == GridMap.CHUNK_SIZE
+                    && copy.getInt(HEADER_CHECKSUM_POSITION) == file.computeChecksum(copy, HEADER_CHECKSUM_POSITION)
+                    && (newest == null || copy.getLong(FLUSH_POSITION) > newest.getLong(FLUSH_POSITION))) {
+                newest = copy;
+            }
+        }
+        if (newest == null) {
+            channel.close();
+            throw new IOException("Not a map file, or written by another version: " + path);
+        }
+        file.readHeader(newest);
+        file.findRecords();
+        return file;
+    }
+
+    /**
+     * Returns true if no map has been flushed to the file yet
+     * @return
+     */
+    public synchronized boolean isEmpty() {
+        return cellSize == 0;
+    }
+
+    /**
+     * Reads the map in the file into a snapshot. The snapshot can be used as
+     * any other snapshot, or be given to GridMap to continue mapping where the
+     * saved map ended. Later flushes only write the chunks that differ from
+     * this snapshot.
+     * @return
+     * @throws IOException if no map has been flushed to the file
+     */
+    public synchronized MapSnapshot readSnapshot() throws IOException {
+        if (isEmpty()) {
+            throw new IOException("The map file is empty");
+        }
+        int bottomChunk = Math.floorDiv(bottomRow, chunkSize);
+        int topChunk = Math.floorDiv(topRow, chunkSize);
+        int leftChunk = Math.floorDiv(leftColumn, chunkSize);
+        int rightChunk = Math.floorDiv(rightColumn, chunkSize);
+        int columns = rightChunk - leftChunk + 1;
+        MapSnapshot.Chunk[] chunks = new MapSnapshot.Chunk[(topChunk - bottomChunk + 1) * columns];
+        int observed = 0;
+        int occupied = 0;
+        int restricted = 0;
+        long[] frontier = new long[64];
+        int frontierSize = 0;
+        for (int slot : records.values()) {
+            ByteBuffer record = getRecord(slot);
+            int start = record.position();
+            int chunkRow = record.getInt(start);
+            int chunkColumn = record.getInt(start + 4);
+            if (chunkRow < bottomChunk || chunkRow > topChunk || chunkColumn < leftChunk || chunkColumn > rightChunk) {
+                continue;
+            }
+            MapSnapshot.Chunk chunk = new MapSnapshot.Chunk(chunkSize);
+            record.position(start + RECORD_CELLS_POSITION);
+            record.get(chunk.flags);
+            record.asShortBuffer().get(chunk.nearestObstacles);
+            for (int k = 0; k < chunk.flags.length; k++) {
+                int flags = chunk.flags[k];
+                if ((flags & MapSnapshot.OBSERVED) != 0) {
+                    chunk.observedRows[k / chunkSize] |= 1 << (k % chunkSize);
+                    observed++;
+                    if ((flags & MapSnapshot.OCCUPIED) != 0) {
+                        occupied++;
+                    }
+                }
+                if ((flags & MapSnapshot.RESTRICTED) != 0) {
+                    restricted++;
+                }
+                if ((flags & MapSnapshot.FRONTIER) != 0) {
+                    if (frontierSize == frontier.length) {
+                        frontier = Arrays.copyOf(frontier, frontierSize * 2);
+                    }
+                    frontier[frontierSize++] = PackedLocation.pack(chunkRow * chunkSize + k / chunkSize,
+                            chunkColumn * chunkSize + k % chunkSize);
+                }
+            }
+            chunks[(chunkRow - bottomChunk) * columns + chunkColumn - leftChunk] = chunk;
+        }
+        frontier = Arrays.copyOf(frontier, frontierSize);
+        Arrays.sort(frontier);
+        int numberOfCells = (topRow - bottomRow + 1) * (rightColumn - leftColumn + 1);
+        MapStatistics statistics = new MapStatistics(cellSize, numberOfCells, observed, occupied, restricted, frontierSize);
+        flushed = new MapSnapshot(version, cellSize, chunkSize, bottomRow, topRow, leftColumn, rightColumn,
+                chunks, frontier, statistics);
+        return flushed;
+    }
+
+    /**
+     * Writes a snapshot of the map to the file. Only the chunks that have
+     * changed since the last snapshot that was flushed or read are written.
+     * If the flush fails, the file still holds the previous flush.
+     * @param snapshot
+     * @throws IOException if the file holds a map with another cell size
+     */
+    public synchronized void flush(MapSnapshot snapshot) throws IOException {
+        if (snapshot == flushed) {
+            return;
+        }
+        if (cellSize != 0 && cellSize != snapshot.getCellSize()) {
+            throw new IOException("The map file holds a map with another cell size");
+        }
+        // A flush that failed may have written records with its number, so
+        // every flush gets a new number
+        long flush = ++lastFlush;
+        // The replaced records are still part of the previous flush until the
+        // header of this flush has been written
+        ArrayList<Integer> replaced = new ArrayList<Integer>();
+        int bottomChunk = Math.floorDiv(snapshot.getBottomRow(), chunkSize);
+        int topChunk = Math.floorDiv(snapshot.getTopRow(), chunkSize);
+        int leftChunk = Math.floorDiv(snapshot.getLeftColumn(), chunkSize);
+        int rightChunk = Math.floorDiv(snapshot.getRightColumn(), chunkSize);
+        for (int i = bottomChunk; i <= topChunk; i++) {
+            for (int j = leftChunk; j <= rightChunk; j++) {
+                MapSnapshot.Chunk chunk = snapshot.getChunk(i, j);
+                // Chunks that have not changed are shared between snapshots
+                if (chunk != null && (flushed == null || chunk != flushed.getChunk(i, j))) {
+                    int slot = freeSlots.isEmpty() ? numberOfSlots++ : freeSlots.remove(freeSlots.size() - 1);
+                    writeRecord(slot, i, j, flush, chunk);
+                    Integer old = records.put(PackedLocation.pack(i, j), slot);
+                    if (old != null) {
+                        replaced.add(old);
+                    }
+                }
+            }
+        }
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+        cellSize = snapshot.getCellSize();
+        bottomRow = snapshot.getBottomRow();
+        topRow = snapshot.getTopRow();
+        leftColumn = snapshot.getLeftColumn();
+        rightColumn = snapshot.getRightColumn();
+        version = snapshot.getVersion();
+        writeHeader(flush);
+        committedFlush = flush;
+        freeSlots.addAll(replaced);
+        flushed = snapshot;
+    }
+
+    /**
+     * Closes the file. The mapped segments are not released until they are
+     * garbage collected, see the description of the class.
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        segments.clear();
+        channel.close();
+    }
+
+    /**
+     * Finds the newest committed record of each chunk among the slots in
+     * the header. The other slots are free. Records of a flush that failed
+     * can be left in the free slots, so new flushes get higher numbers than
+     * any record.
+     */
+    private void findRecords() throws IOException {
+        HashMap<Long, Long> newest = new HashMap<Long, Long>();
+        for (int i = 0; i < numberOfSlots; i++) {
+            ByteBuffer record = getRecord(i);
+            long flush = record.getLong(record.position() + RECORD_FLUSH_POSITION);
+            lastFlush = Math.max(lastFlush, flush);
+            int stored = record.getInt(record.position() + recordSize - 4);
+            if (flush > committedFlush || stored != computeChecksum(record, recordSize - 4)) {
+                freeSlots.add(i);
+                continue;
+            }
+            long location = PackedLocation.pack(record.getInt(), record.getInt());
+            Long newestFlush = newest.get(location);
+            if (newestFlush == null || flush > newestFlush) {
+                Integer old = records.put(location, i);
+                if (old != null) {
+                    freeSlots.add(old);
+                }
+                newest.put(location, flush);
+            }
+            else {
+                freeSlots.add(i);
+            }
+        }
+    }
+
+    private void readHeader(ByteBuffer copy) {
+        cellSize = copy.getInt(CELL_SIZE_POSITION);
+        bottomRow = copy.getInt(BOTTOM_ROW_POSITION);
+        topRow = copy.getInt(TOP_ROW_POSITION);
+        leftColumn = copy.getInt(LEFT_COLUMN_POSITION);
+        rightColumn = copy.getInt(RIGHT_COLUMN_POSITION);
+        version = copy.getLong(VERSION_POSITION);
+        committedFlush = copy.getLong(FLUSH_POSITION);
+        lastFlush = committedFlush;
+        numberOfSlots = copy.getInt(SLOTS_POSITION);
+    }
+
+    /**
+     * Writes the header of the specified flush to the copy that does not
+     * hold the previous flush, and forces it to the disk
+     */
+    private void writeHeader(long flush) {
+        ByteBuffer copy = getHeader((int) (flush % 2));
+        copy.putInt(MAGIC_POSITION, MAGIC);
+        copy.putInt(FORMAT_VERSION_POSITION, FORMAT_VERSION);
+        copy.putInt(CELL_SIZE_POSITION, cellSize);
+        copy.putInt(CHUNK_SIZE_POSITION, chunkSize);
+        copy.putInt(BOTTOM_ROW_POSITION, bottomRow);
+        copy.putInt(TOP_ROW_POSITION, topRow);
+        copy.putInt(LEFT_COLUMN_POSITION, leftColumn);
+        copy.putInt(RIGHT_COLUMN_POSITION, rightColumn);
+        copy.putLong(VERSION_POSITION, version);
+        copy.putLong(FLUSH_POSITION, flush);
+        copy.putInt(SLOTS_POSITION, numberOfSlots);
+        copy.putInt(HEADER_CHECKSUM_POSITION, computeChecksum(copy, HEADER_CHECKSUM_POSITION));
+        header.force();
+    }
+
+    private void writeRecord(int slot, int chunkRow, int chunkColumn, long flush, MapSnapshot.Chunk chunk)
+            throws IOException {
+        ByteBuffer record = getRecord(slot);
+        int start = record.position();
+        record.putInt(chunkRow);
+        record.putInt(chunkColumn);
+        record.putLong(flush);
+        record.put(chunk.flags);
+        record.asShortBuffer().put(chunk.nearestObstacles);
+        record.position(start);
+        record.putInt(start + recordSize - 4, computeChecksum(record, recordSize - 4));
+    }
+
+    /**
+     * Returns the checksum of the specified number of bytes from the
+     * position of the buffer. The position is not changed.
+     */
+    private int computeChecksum(ByteBuffer buffer, int length) {
+        ByteBuffer bytes = buffer.duplicate();
+        bytes.limit(bytes.position() + length);
+        checksum.reset();
+        checksum.update(bytes);
+        return (int) checksum.getValue();
+    }
+
+    /**
+     * Returns a buffer holding one copy of the header, with the header
+     * starting at position 0
+     */
+    private ByteBuffer getHeader(int copy) {
+        ByteBuffer buffer = header.duplicate();
+        buffer.position(copy * HEADER_SIZE);
+        buffer.limit((copy + 1) * HEADER_SIZE);
+        return buffer.slice();
+    }
+
+    /**
+     * Returns a buffer positioned at the start of the specified record slot.
+     * The segment holding the slot is mapped if it has not been mapped yet,
+     * which makes the file grow if needed.
+     */
+    private ByteBuffer getRecord(int slot) throws IOException {
+        int segment = slot / recordsPerSegment;
+        while (segments.size() <= segment) {
+            long position = 2 * HEADER_SIZE + (long) segments.size() * recordsPerSegment * recordSize;
+            segments.add(channel.map(FileChannel.MapMode.READ_WRITE, position, (long) recordsPerSegment * recordSize));
+        }
+        ByteBuffer record = segments.get(segment).duplicate();
+        record.position((slot % recordsPerSegment) * recordSize);
+        return record;
+    }
+}
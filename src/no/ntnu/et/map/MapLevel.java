@@ -0,0 +1,137 @@
+/*
+ * This code is written as a part of a Master Thesis
+ * the spring of 2016.
+ *
+ * Eirik Thon(Master 2016 @ NTNU)
+ */
+package no.ntnu.et.map;
+
+/**
+ * A MapSnapshot at a coarser resolution. Each cell at level n covers
+ * 2^n x 2^n cells of the map, so that the cell (row, column) at the level
+ * covers the rows row*2^n to (row+1)*2^n - 1 of the map, and the same for the
+ * columns. A cell at the level is only observed if all the cells it covers
+ * are observed, but it is occupied, restricted or a frontier cell if any of
+ * the cells it covers is. Cells outside the map count as unobserved.
+ *
+ * Use the coarse levels to get an overview of the map, for instance when the
+ * map is painted zoomed out or when searching large areas. A free cell at a
+ * coarse level is free all over.
+ *
+ * @author Eirik Thon
+ */
+public class MapLevel {
+    private final MapSnapshot snapshot;
+    private final int level;
+
+    MapLevel(MapSnapshot snapshot, int level) {
+        this.snapshot = snapshot;
+        this.level = level;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Returns the size of the cells at this level in cm
+     * @return
+     */
+    public int getCellSize() {
+        return snapshot.getCellSize() << level;
+    }
+
+    public int getBottomRow() {
+        return snapshot.getBottomRow() >> level;
+    }
+
+    public int getTopRow() {
+        return snapshot.getTopRow() >> level;
+    }
+
+    public int getLeftColumn() {
+        return snapshot.getLeftColumn() >> level;
+    }
+
+    public int getRightColumn() {
+        return snapshot.getRightColumn() >> level;
+    }
+
+    /**
+     * Returns the row at this level that covers the specified row of the map
+     * @param row
+     * @return
+     */
+    public int findRow(int row) {
+        return row >> level;
+    }
+
+    /**
+     * Returns the column at this level that covers the specified column of
+     * the map
+     * @param column
+     * @return
+     */
+    public int findColumn(int column) {
+        return column >> level;
+    }
+
+    /**
+     * Returns the state of the cell as a combination of the flags in
+     * MapSnapshot, see the description of the class
+     * @param row
+     * @param column
+     * @return
+     */
+    public int getState(int row, int column) {
+        return snapshot.getLevelFlags(level, row, column);
+    }
+
+    /**
+     * Returns true if all the cells covered by the cell have been observed
+     * @param row
+     * @param column
+     * @return
+     */
+    public boolean isPreviouslyObserved(int row, int column) {
+        return (getState(row, column) & MapSnapshot.OBSERVED) != 0;
+    }
+
+    /**
+     * Returns true if any of the cells covered by the cell is occupied
+     * @param row
+     * @param column
+     * @return
+     */
+    public boolean isOccupied(int row, int column) {
+        return (getState(row, column) & MapSnapshot.OCCUPIED) != 0;
+    }
+
+    /**
+     * Returns true if all the cells covered by the cell are observed and free
+     * @param row
+     * @param column
+     * @return
+     */
+    public boolean isFree(int row, int column) {
+        return (getState(row, column) & (MapSnapshot.OBSERVED | MapSnapshot.OCCUPIED)) == MapSnapshot.OBSERVED;
+    }
+
+    public boolean isRestricted(int row, int column) {
+        return (getState(row, column) & MapSnapshot.RESTRICTED) != 0;
+    }
+
+    public boolean isWeaklyRestricted(int row, int column) {
+        return (getState(row, column) & MapSnapshot.WEAKLY_RESTRICTED) != 0;
+    }
+
+    /**
+     * Returns true if any of the cells covered by the cell is a frontier cell
+     * @param row
+     * @param column
+     * @return
+     */
+    public boolean isFrontier(int row, int column) {
+        return (getState(row, column) & MapSnapshot.FRONTIER) != 0;
+    }
+}
@@ -44,6 +44,24 @@ public class MapLocation {
         return column;
     }
     
+    /**
+     * Returns the row and column of the MapLocation packed into a long. See
+     * PackedLocation
+     * @return 
+     */
+    public long pack() {
+        return PackedLocation.pack(row, column);
+    }
+    
+    /**
+     * Creates a MapLocation from a packed location
+     * @param location
+     * @return 
+     */
+    public static MapLocation unpack(long location) {
+        return new MapLocation(PackedLocation.getRow(location), PackedLocation.getColumn(location));
+    }
+    
     /**
      * Prints the row and column of the MapLocation
      */
@@ -116,44 +134,7 @@ public class MapLocation {
      * @return 
      */
     public static MapLocation switchToOctantZeroFrom(int octant, MapLocation location) {
-        MapLocation newLocation = new MapLocation(0, 0);
-        switch(octant) { 
-            case 0:
-                newLocation.column = location.column;
-                newLocation.row = location.row;
-                return newLocation;
-            case 1:
-                newLocation.column = location.row;
-                newLocation.row = location.column;
-                return newLocation;
-            case 2:
-                newLocation.column = location.row;
-                newLocation.row = -location.column;
-                return newLocation;
-            case 3:
-                newLocation.column = -location.column;
-                newLocation.row = location.row;
-                return newLocation;
-            case 4:
-                newLocation.column = -location.column;
-                newLocation.row = -location.row;
-                return newLocation;
-            case 5:
-                newLocation.column = -location.row;
-                newLocation.row = -location.column;
-                return newLocation;
-            case 6:
-                newLocation.column = -location.row;
-                newLocation.row = location.column;
-                return newLocation;
-            case 7:
-                newLocation.column = location.column;
-                newLocation.row = -location.row;
-                return newLocation;
-            default:
-                System.out.println("ERROR INVALID OCTANT: " + octant);
-                return newLocation;
-        }
+        return unpack(PackedLocation.switchToOctantZeroFrom(octant, location.row, location.column));
     }
     
     
@@ -165,43 +146,7 @@ public class MapLocation {
      * @return 
      */
     public static MapLocation switchFromOctantZeroTo(int octant, MapLocation location) {
-        MapLocation newLocation = new MapLocation(0, 0);
-        switch(octant) {
-            case 0:
-                newLocation.column = location.column;
-                newLocation.row = location.row;
-                return newLocation;
-            case 1:
-                newLocation.column = location.row;
-                newLocation.row = location.column;
-                return newLocation;
-            case 2:
-                newLocation.column = -location.row;
-                newLocation.row = location.column;
-                return newLocation;
-            case 3:
-                newLocation.column = -location.column;
-                newLocation.row = location.row;
-                return newLocation;
-            case 4:
-                newLocation.column = -location.column;
-                newLocation.row = -location.row;
-                return newLocation;
-            case 5:
-                newLocation.column = -location.row;
-                newLocation.row = -location.column;
-                return newLocation;
-            case 6:
-                newLocation.column = location.row;
-                newLocation.row = -location.column;
-                return newLocation;
-            case 7:
-                newLocation.column = location.column;
-                newLocation.row = -location.row;
-                return newLocation;
-            default:
-                return newLocation;
-        }
+        return unpack(PackedLocation.switchFromOctantZeroTo(octant, location.row, location.column));
     }
     
     /**
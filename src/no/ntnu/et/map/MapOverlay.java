@@ -0,0 +1,99 @@
+/*
+ * This code is written as a part of a Master Thesis
+ * the spring of 2016.
+ *
+ * Eirik Thon(Master 2016 @ NTNU)
+ */
+package no.ntnu.et.map;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Markers that are shown on top of the map, such as the target and path of
+ * each robot. The markers are kept apart from the GridMap so that the planners
+ * and the GUI never write to the map, and only the robots that have markers
+ * take up any memory. The markers of a robot are replaced all at once and
+ * read all at once with getMarkers, so a reader always sees a target and path
+ * that belong together.
+ *
+ * @author Eirik Thon
+ */
+public class MapOverlay {
+    private final ConcurrentHashMap<String, Markers> markers;
+
+    /**
+     * The target and path of one robot. Never changed after it is created.
+     */
+    public static class Markers {
+        private final long target;
+        private final long[] path;
+
+        private Markers(long target, long[] path) {
+            this.target = target;
+            this.path = path;
+        }
+
+        public MapLocation getTarget() {
+            return MapLocation.unpack(target);
+        }
+
+        /**
+         * Returns the path to the target. The list is empty if the robot has
+         * no path.
+         * @return
+         */
+        public ArrayList<MapLocation> getPath() {
+            ArrayList<MapLocation> locations = new ArrayList<MapLocation>(path.length);
+            for (long location : path) {
+                locations.add(MapLocation.unpack(location));
+            }
+            return locations;
+        }
+    }
+
+    public MapOverlay() {
+        markers = new ConcurrentHashMap<String, Markers>();
+    }
+
+    /**
+     * Sets the target of a robot and the path it follows to the target
+     * @param robotName
+     * @param target
+     * @param path the path, or null if the robot has no path
+     */
+    public void setTarget(String robotName, MapLocation target, List<MapLocation> path) {
+        long[] packedPath = new long[path == null ? 0 : path.size()];
+        for (int i = 0; i < packedPath.length; i++) {
+            packedPath[i] = path.get(i).pack();
+        }
+        markers.put(robotName, new Markers(target.pack(), packedPath));
+    }
+
+    /**
+     * Removes the target and path of a robot
+     * @param robotName
+     */
+    public void clear(String robotName) {
+        markers.remove(robotName);
+    }
+
+    /**
+     * Returns the names of the robots that have markers
+     * @return
+     */
+    public Set<String> getRobotNames() {
+        return markers.keySet();
+    }
+
+    /**
+     * Returns the target and path of a robot, or null if it has none
+     * @param robotName
+     * @return
+     */
+    public Markers getMarkers(String robotName) {
+        return markers.get(robotName);
+    }
+}
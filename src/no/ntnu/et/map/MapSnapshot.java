@@ -0,0 +1,427 @@
+/*
+ * This code is written as a part of a Master Thesis
+ * the spring of 2016.
+ *
+ * Eirik Thon(Master 2016 @ NTNU)
+ */
+package no.ntnu.et.map;
+
+import java.util.ArrayList;
+
+/**
+ * Immutable copy of the state of a GridMap at one point in time. Snapshots are
+ * published by the thread that updates the map, see GridMap.publishSnapshot,
+ * and can be read by any thread without locking while the map continues to
+ * change. The cells are stored in the same chunks that the GridMap uses to
+ * keep track of changes. Only the chunks that changed since the previous
+ * snapshot are copied, all other chunks are shared with the previous snapshot.
+ *
+ * The snapshot can also be read at coarser levels, see getLevel. Level n has
+ * cells that cover 2^n x 2^n cells of the map. The coarser levels of a chunk
+ * are computed the first time they are read, so only the chunks that changed
+ * are computed again in the next snapshot.
+ *
+ * @author Eirik Thon
+ */
+public class MapSnapshot {
+    /**
+     * Flags describing the state of a cell. The same flags are used for the
+     * old and new states in a MapChangeBatch.
+     */
+    public static final int OBSERVED = 1;
+    public static final int OCCUPIED = 2;
+    public static final int RESTRICTED = 4;
+    public static final int WEAKLY_RESTRICTED = 8;
+    public static final int FRONTIER = 16;
+
+    private final long version;
+    private final int cellSize;
+    private final int chunkSize;
+    private final int bottomRow;
+    private final int topRow;
+    private final int leftColumn;
+    private final int rightColumn;
+    private final int bottomChunk;
+    private final int leftChunk;
+    private final int chunkColumns;
+    private final Chunk[] chunks;
+    private final long[] frontierLocations;
+    private final MapStatistics statistics;
+
+    /**
+     * The state of the cells in one chunk. Chunks that have never changed are
+     * null, and all their cells are unobserved and unrestricted.
+     */
+    static class Chunk {
+        final byte[] flags;
+        // One bit per observed cell for each row in the chunk
+        final int[] observedRows;
+        // Offset to the nearest occupied cell, see ObstacleOffset
+        final short[] nearestObstacles;
+        // The flags at the coarser levels, created the first time they are read
+        private volatile byte[][] levels;
+
+        Chunk(int chunkSize) {
+            flags = new byte[chunkSize * chunkSize];
+            observedRows = new int[chunkSize];
+            nearestObstacles = new short[chunkSize * chunkSize];
+        }
+
+        /**
+         * Returns the flags of the cells in the chunk at the specified level,
+         * row by row. The chunk has (chunkSize >> level)^2 cells at the level.
+         * The level can be at most log2(chunkSize), where the chunk is one
+         * cell.
+         */
+        byte[] getLevelFlags(int level) {
+            if (level == 0) {
+                return flags;
+            }
+            byte[][] coarse = levels;
+            if (coarse == null) {
+                // Two threads may both compute the levels, but the result is
+                // the same
+                coarse = createLevels();
+                levels = coarse;
+            }
+            return coarse[level - 1];
+        }
+
+        private byte[][] createLevels() {
+            int chunkSize = observedRows.length;
+            byte[][] coarse = new byte[Integer.numberOfTrailingZeros(chunkSize)][];
+            byte[] finer = flags;
+            for (int n = 0; n < coarse.length; n++) {
+                int size = chunkSize >> (n + 1);
+                byte[] coarser = new byte[size * size];
+                for (int i = 0; i < size; i++) {
+                    for (int j = 0; j < size; j++) {
+                        int k = 4 * size * i + 2 * j;
+                        coarser[i * size + j] = (byte) combineFlags(combineFlags(finer[k], finer[k + 1]),
+                                combineFlags(finer[k + 2 * size], finer[k + 2 * size + 1]));
+                    }
+                }
+                coarse[n] = coarser;
+                finer = coarser;
+            }
+            return coarse;
+        }
+    }
+
+    /**
+     * Combines the flags of two cells into the flags of a cell that covers
+     * both. The combined cell is only observed if both cells are observed, and
+     * has every other flag that one of the cells has.
+     */
+    static int combineFlags(int flags1, int flags2) {
+        return (flags1 & flags2 & OBSERVED) | ((flags1 | flags2) & ~OBSERVED);
+    }
+
+    MapSnapshot(long version, int cellSize, int chunkSize, int bottomRow, int topRow, int leftColumn, int rightColumn,
+            Chunk[] chunks, long[] frontierLocations, MapStatistics statistics) {
+        this.version = version;
+        this.cellSize = cellSize;
+        this.chunkSize = chunkSize;
+        this.bottomRow = bottomRow;
+        this.topRow = topRow;
+        this.leftColumn = leftColumn;
+        this.rightColumn = rightColumn;
+        this.bottomChunk = Math.floorDiv(bottomRow, chunkSize);
+        this.leftChunk = Math.floorDiv(leftColumn, chunkSize);
+        this.chunkColumns = Math.floorDiv(rightColumn, chunkSize) - leftChunk + 1;
+        this.chunks = chunks;
+        this.frontierLocations = frontierLocations;
+        this.statistics = statistics;
+    }
+
+    /**
+     * Returns the chunk with the specified chunk coordinates, or null if it is
+     * outside the snapshot or has never changed. Used when the next snapshot
+     * is created.
+     */
+    Chunk getChunk(int chunkRow, int chunkColumn) {
+        int rows = chunks.length / chunkColumns;
+        if (chunkRow < bottomChunk || chunkRow >= bottomChunk + rows
+                || chunkColumn < leftChunk || chunkColumn >= leftChunk + chunkColumns) {
+            return null;
+        }
+        return chunks[(chunkRow - bottomChunk) * chunkColumns + chunkColumn - leftChunk];
+    }
+
+    /**
+     * Returns the distance in cm from the cell to the nearest occupied cell,
+     * or Double.POSITIVE_INFINITY if there is no occupied cell within
+     * GridMap.WEAKLY_RESTRICTED_RADIUS
+     * @param row
+     * @param column
+     * @return
+     */
+    public double getObstacleDistance(int row, int column) {
+        int nearest = CellStorage.NO_OBSTACLE;
+        if (isInsideMap(row, column)) {
+            Chunk chunk = chunks[(Math.floorDiv(row, chunkSize) - bottomChunk) * chunkColumns
+                    + Math.floorDiv(column, chunkSize) - leftChunk];
+            if (chunk != null) {
+                nearest = chunk.nearestObstacles[Math.floorMod(row, chunkSize) * chunkSize + Math.floorMod(column, chunkSize)] & 0xFFFF;
+            }
+        }
+        if (nearest == CellStorage.NO_OBSTACLE) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return Math.sqrt(ObstacleOffset.squaredDistance(nearest)) * cellSize;
+    }
+
+    private int getFlags(int row, int column) {
+        if (!isInsideMap(row, column)) {
+            return 0;
+        }
+        int index = (Math.floorDiv(row, chunkSize) - bottomChunk) * chunkColumns
+                + Math.floorDiv(column, chunkSize) - leftChunk;
+        Chunk chunk = chunks[index];
+        if (chunk == null) {
+            return 0;
+        }
+        return chunk.flags[Math.floorMod(row, chunkSize) * chunkSize + Math.floorMod(column, chunkSize)];
+    }
+
+    /**
+     * Returns the flags of a cell at the specified level, combined from the
+     * cells it covers with combineFlags. Cells outside the map are unobserved.
+     * @param level
+     * @param row row at the level
+     * @param column column at the level
+     * @return
+     */
+    int getLevelFlags(int level, int row, int column) {
+        int chunkLevel = Integer.numberOfTrailingZeros(chunkSize);
+        if (level <= chunkLevel) {
+            Chunk chunk = getChunk(row >> (chunkLevel - level), column >> (chunkLevel - level));
+            if (chunk == null) {
+                return 0;
+            }
+            int size = chunkSize >> level;
+            return chunk.getLevelFlags(level)[(row & (size - 1)) * size + (column & (size - 1))];
+        }
+        // The cell covers several chunks
+        int chunks = 1 << (level - chunkLevel);
+        int flags = OBSERVED;
+        for (int i = row * chunks; i < (row + 1) * chunks; i++) {
+            for (int j = column * chunks; j < (column + 1) * chunks; j++) {
+                Chunk chunk = getChunk(i, j);
+                flags = combineFlags(flags, chunk == null ? 0 : chunk.getLevelFlags(chunkLevel)[0]);
+            }
+        }
+        return flags;
+    }
+
+    /**
+     * Returns a view of the snapshot at the specified level, where each cell
+     * covers 2^level x 2^level cells. Level 0 is the map itself.
+     * @param level
+     * @return
+     */
+    public MapLevel getLevel(int level) {
+        return new MapLevel(this, level);
+    }
+
+    /**
+     * Returns the finest level with cells of at least the specified size
+     * @param cellSize in cm
+     * @return
+     */
+    public MapLevel getLevelForCellSize(int cellSize) {
+        int level = 0;
+        while ((this.cellSize << level) < cellSize) {
+            level++;
+        }
+        return getLevel(level);
+    }
+
+    /**
+     * Returns the version of the snapshot. A newer snapshot has a higher
+     * version.
+     * @return
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public int getCellSize() {
+        return cellSize;
+    }
+
+    public int getBottomRow() {
+        return bottomRow;
+    }
+
+    public int getTopRow() {
+        return topRow;
+    }
+
+    public int getLeftColumn() {
+        return leftColumn;
+    }
+
+    public int getRightColumn() {
+        return rightColumn;
+    }
+
+    public int getNumberOfRows() {
+        return topRow - bottomRow + 1;
+    }
+
+    public int getNumberOfColumns() {
+        return rightColumn - leftColumn + 1;
+    }
+
+    /**
+     * Returns true if (row, column) was inside the map when the snapshot was
+     * created
+     * @param row
+     * @param column
+     * @return
+     */
+    public boolean isInsideMap(int row, int column) {
+        return row >= bottomRow && row <= topRow && column >= leftColumn && column <= rightColumn;
+    }
+
+    public boolean isPreviouslyObserved(int row, int column) {
+        return (getFlags(row, column) & OBSERVED) != 0;
+    }
+
+    public boolean isOccupied(int row, int column) {
+        return (getFlags(row, column) & (OBSERVED | OCCUPIED)) == (OBSERVED | OCCUPIED);
+    }
+
+    public boolean isFree(int row, int column) {
+        return (getFlags(row, column) & (OBSERVED | OCCUPIED)) == OBSERVED;
+    }
+
+    public boolean isRestricted(int row, int column) {
+        return (getFlags(row, column) & RESTRICTED) != 0;
+    }
+
+    public boolean isWeaklyRestricted(int row, int column) {
+        return (getFlags(row, column) & WEAKLY_RESTRICTED) != 0;
+    }
+
+    public boolean isFrontier(int row, int column) {
+        return (getFlags(row, column) & FRONTIER) != 0;
+    }
+
+    /**
+     * Returns the state of the cell as a combination of the flags OBSERVED,
+     * OCCUPIED, RESTRICTED, WEAKLY_RESTRICTED and FRONTIER. Cells outside the
+     * map have state 0.
+     * @param row
+     * @param column
+     * @return
+     */
+    public int getState(int row, int column) {
+        return getFlags(row, column);
+    }
+
+    /**
+     * Returns true if the cell is free and not restricted
+     * @param row
+     * @param column
+     * @return
+     */
+    public boolean isWeaklyTargetable(int row, int column) {
+        return (getFlags(row, column) & (OBSERVED | OCCUPIED | RESTRICTED)) == OBSERVED;
+    }
+
+    /**
+     * Returns true if the cell is free and not weakly restricted
+     * @param row
+     * @param column
+     * @return
+     */
+    public boolean isFreelyTargetable(int row, int column) {
+        return (getFlags(row, column) & (OBSERVED | OCCUPIED | RESTRICTED | WEAKLY_RESTRICTED)) == OBSERVED;
+    }
+
+    /**
+     * Returns the number of unexplored cells around the specified location
+     * within the specified radius. Same as
+     * GridMap.countUnknownCellsAroundLocation
+     * @param location
+     * @param radius in cm
+     * @return
+     */
+    public int countUnknownCellsAroundLocation(MapLocation location, int radius) {
+        int row = location.getRow();
+        int column = location.getColumn();
+        CircleStencil stencil = CircleStencil.get(radius / cellSize);
+        int bottom = Math.max(row - stencil.getRadius(), bottomRow);
+        int top = Math.min(row + stencil.getRadius(), topRow);
+        int counter = 0;
+        for (int i = bottom; i <= top; i++) {
+            int halfWidth = stencil.getHalfWidth(i - row);
+            int left = Math.max(column - halfWidth, leftColumn);
+            int right = Math.min(column + halfWidth, rightColumn);
+            if (left <= right) {
+                counter += right - left + 1 - countObserved(i, left, right);
+            }
+        }
+        return counter;
+    }
+
+    private int countObserved(int row, int left, int right) {
+        int rowChunk = Math.floorDiv(row, chunkSize) - bottomChunk;
+        int rowInChunk = Math.floorMod(row, chunkSize);
+        int counter = 0;
+        for (int j = Math.floorDiv(left, chunkSize); j <= Math.floorDiv(right, chunkSize); j++) {
+            Chunk chunk = chunks[rowChunk * chunkColumns + j - leftChunk];
+            if (chunk == null) {
+                continue;
+            }
+            int mask = -1;
+            if (j == Math.floorDiv(left, chunkSize)) {
+                mask &= -1 << Math.floorMod(left, chunkSize);
+            }
+            if (j == Math.floorDiv(right, chunkSize)) {
+                mask &= -1 >>> (31 - Math.floorMod(right, chunkSize));
+            }
+            counter += Integer.bitCount(chunk.observedRows[rowInChunk] & mask);
+        }
+        return counter;
+    }
+
+    /**
+     * Returns the frontier locations of the map, bottom row first. See
+     * GridMap.getFrontierLocations
+     * @return
+     */
+    public ArrayList<MapLocation> getFrontierLocations() {
+        ArrayList<MapLocation> frontier = new ArrayList<MapLocation>(frontierLocations.length);
+        for (long location : frontierLocations) {
+            frontier.add(MapLocation.unpack(location));
+        }
+        return frontier;
+    }
+
+    /**
+     * Returns the frontier locations packed into longs, bottom row first
+     * @return
+     */
+    public long[] getPackedFrontierLocations() {
+        return frontierLocations.clone();
+    }
+
+    /**
+     * Returns the frontier locations without copying them. Used when the next
+     * snapshot is created.
+     */
+    long[] getFrontierArray() {
+        return frontierLocations;
+    }
+
+    /**
+     * Returns the number of cells in each state
+     * @return
+     */
+    public MapStatistics getStatistics() {
+        return statistics;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * This code is written as a part of a Master Thesis
+ * the spring of 2016.
+ *
+ * Eirik Thon(Master 2016 @ NTNU)
+ */
+package no.ntnu.et.map;
+
+/**
+ * Snapshot of the number of cells in each state in a GridMap. The counts are
+ * maintained by the GridMap as it is updated, so creating a snapshot does not
+ * require the map to be scanned.
+ *
+ * @author Eirik Thon
+ */
+public class MapStatistics {
+    private final int cellSize;
+    private final int numberOfCells;
+    private final int observedCells;
+    private final int occupiedCells;
+    private final int restrictedCells;
+    private final int frontierCells;
+
+    MapStatistics(int cellSize, int numberOfCells, int observedCells, int occupiedCells, int restrictedCells, int frontierCells) {
+        this.cellSize = cellSize;
+        this.numberOfCells = numberOfCells;
+        this.observedCells = observedCells;
+        this.occupiedCells = occupiedCells;
+        this.restrictedCells = restrictedCells;
+        this.frontierCells = frontierCells;
+    }
+
+    /**
+     * Returns the total number of cells in the map
+     * @return
+     */
+    public int getNumberOfCells() {
+        return numberOfCells;
+    }
+
+    /**
+     * Returns the number of cells that have been observed
+     * @return
+     */
+    public int getObservedCells() {
+        return observedCells;
+    }
+
+    /**
+     * Returns the number of cells that have not been observed
+     * @return
+     */
+    public int getUnknownCells() {
+        return numberOfCells - observedCells;
+    }
+
+    /**
+     * Returns the number of observed cells that are free
+     * @return
+     */
+    public int getFreeCells() {
+        return observedCells - occupiedCells;
+    }
+
+    /**
+     * Returns the number of observed cells that are occupied
+     * @return
+     */
+    public int getOccupiedCells() {
+        return occupiedCells;
+    }
+
+    /**
+     * Returns the number of cells that are restricted
+     * @return
+     */
+    public int getRestrictedCells() {
+        return restrictedCells;
+    }
+
+    /**
+     * Returns the number of frontier locations
+     * @return
+     */
+    public int getFrontierCells() {
+        return frontierCells;
+    }
+
+    /**
+     * Returns the area of the observed cells in cm^2
+     * @return
+     */
+    public int getExploredArea() {
+        return observedCells * cellSize * cellSize;
+    }
+
+    /**
+     * Returns the fraction of the cells in the map that have been observed
+     * @return
+     */
+    public double getCoverage() {
+        if (numberOfCells == 0) {
+            return 0;
+        }
+        return (double) observedCells / numberOfCells;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * This code is written as a part of a Master Thesis
+ * the spring of 2016.
+ *
+ * Eirik Thon(Master 2016 @ NTNU)
+ */
+package no.ntnu.et.map;
+
+import java.util.Arrays;
+
+/**
+ * A list of measurements that are added to a GridMap together, see
+ * GridMap.addMeasurements. The batch is meant to be reused: fill it, give it
+ * to the map and clear it.
+ *
+ * @author Eirik Thon
+ */
+public class MeasurementBatch {
+    private long[] locations;
+    private boolean[] measurements;
+    private int size;
+    // Chunk and index of each measurement, see sortByChunk
+    private long[] order;
+
+    public MeasurementBatch() {
+        locations = new long[256];
+        measurements = new boolean[256];
+        order = new long[0];
+        size = 0;
+    }
+
+    /**
+     * Adds a measurement of the cell at the specified location
+     * @param location
+     * @param measurement true if an obstacle was measured
+     */
+    public void add(MapLocation location, boolean measurement) {
+        add(location.getRow(), location.getColumn(), measurement);
+    }
+
+    public void add(int row, int column, boolean measurement) {
+        if (size == locations.length) {
+            locations = Arrays.copyOf(locations, size * 2);
+            measurements = Arrays.copyOf(measurements, size * 2);
+        }
+        locations[size] = PackedLocation.pack(row, column);
+        measurements[size] = measurement;
+        size++;
+    }
+
+    /**
+     * Adds all the measurements of another batch after the measurements in
+     * this batch
+     * @param other
+     */
+    public void addAll(MeasurementBatch other) {
+        if (size + other.size > locations.length) {
+            int length = Math.max(size + other.size, locations.length * 2);
+            locations = Arrays.copyOf(locations, length);
+            measurements = Arrays.copyOf(measurements, length);
+        }
+        System.arraycopy(other.locations, 0, locations, size, other.size);
+        System.arraycopy(other.measurements, 0, measurements, size, other.size);
+        size += other.size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all measurements from the batch
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    long getLocation(int index) {
+        return locations[index];
+    }
+
+    boolean getMeasurement(int index) {
+        return measurements[index];
+    }
+
+    /**
+     * Sorts the measurements by the chunk their cell is in. Measurements in
+     * the same chunk keep their order, so the measurements of a cell are
+     * still added in the order they were made. Returns the order as longs
+     * where the upper half is the chunk number within the batch and the lower
+     * half is the index of the measurement. The index makes every key unique
+     * and orders the keys of a chunk by arrival, so the order does not depend
+     * on the sort being stable.
+     * @param chunkSize
+     * @return
+     */
+    long[] sortByChunk(int chunkSize) {
+        int bottom = Integer.MAX_VALUE;
+        int left = Integer.MAX_VALUE;
+        int right = Integer.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            int chunkRow = Math.floorDiv(PackedLocation.getRow(locations[i]), chunkSize);
+            int chunkColumn = Math.floorDiv(PackedLocation.getColumn(locations[i]), chunkSize);
+            bottom = Math.min(bottom, chunkRow);
+            left = Math.min(left, chunkColumn);
+            right = Math.max(right, chunkColumn);
+        }
+        if (order.length < size) {
+            order = new long[locations.length];
+        }
+        long columns = right - left + 1;
+        for (int i = 0; i < size; i++) {
+            long chunkRow = Math.floorDiv(PackedLocation.getRow(locations[i]), chunkSize) - bottom;
+            long chunkColumn = Math.floorDiv(PackedLocation.getColumn(locations[i]), chunkSize) - left;
+            // The index is the sequence number of the measurement within its
+            // chunk. Arrays.sort is not stable, but no two keys are equal.
+            order[i] = ((chunkRow * columns + chunkColumn) << 32) | i;
+        }
+        Arrays.sort(order, 0, size);
+        return order;
+    }
+}
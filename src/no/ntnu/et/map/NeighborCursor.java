@@ -0,0 +1,121 @@
+/*
+ * This code is written as a part of a Master Thesis
+ * the spring of 2016.
+ *
+ * Eirik Thon(Master 2016 @ NTNU)
+ */
+package no.ntnu.et.map;
+
+/**
+ * Reusable cursor over the neighbors of a cell in a GridMap or a MapSnapshot.
+ * Neighbors outside the boundaries of the map are skipped. The neighbors are visited in the same
+ * order as they are returned by findDiagonalNeighborCells and
+ * findDirectNeighborCells, diagonal neighbors first. Nothing is allocated, so
+ * one cursor can be used for all the cells of a search.
+ *
+ * Usage:
+ * <pre>
+ * cursor.reset(row, column, NeighborCursor.ALL_NEIGHBORS);
+ * while(cursor.next()){
+ *     ... cursor.getRow(), cursor.getColumn() ...
+ * }
+ * </pre>
+ *
+ * @author Eirik Thon
+ */
+public class NeighborCursor {
+    /**
+     * Visit the cells above, to the right, below and to the left
+     */
+    public static final int DIRECT_NEIGHBORS = 1;
+    /**
+     * Visit the cells above right, above left, below right and below left
+     */
+    public static final int DIAGONAL_NEIGHBORS = 2;
+    /**
+     * Visit the diagonal neighbors and then the direct neighbors
+     */
+    public static final int ALL_NEIGHBORS = 3;
+
+    // Diagonal neighbors first, then direct neighbors
+    private static final int[] ROW_OFFSETS = {1, 1, -1, -1, 1, 0, -1, 0};
+    private static final int[] COLUMN_OFFSETS = {1, -1, 1, -1, 0, 1, 0, -1};
+
+    private final GridMap map;
+    private final MapSnapshot snapshot;
+    private int centerRow;
+    private int centerColumn;
+    private int index;
+    private int end;
+    private int row;
+    private int column;
+
+    /**
+     * Creates a new cursor for the specified map
+     * @param map
+     */
+    public NeighborCursor(GridMap map) {
+        this.map = map;
+        snapshot = null;
+        index = 0;
+        end = 0;
+    }
+
+    /**
+     * Creates a new cursor for the specified snapshot
+     * @param snapshot
+     */
+    public NeighborCursor(MapSnapshot snapshot) {
+        map = null;
+        this.snapshot = snapshot;
+        index = 0;
+        end = 0;
+    }
+
+    /**
+     * Starts visiting the neighbors of the cell at (row, column)
+     * @param row
+     * @param column
+     * @param neighbors DIRECT_NEIGHBORS, DIAGONAL_NEIGHBORS or ALL_NEIGHBORS
+     */
+    public void reset(int row, int column, int neighbors) {
+        centerRow = row;
+        centerColumn = column;
+        index = (neighbors & DIAGONAL_NEIGHBORS) != 0 ? 0 : 4;
+        end = (neighbors & DIRECT_NEIGHBORS) != 0 ? 8 : 4;
+    }
+
+    /**
+     * Moves to the next neighbor inside the map. Returns false when there are
+     * no more neighbors.
+     * @return
+     */
+    public boolean next() {
+        while (index < end) {
+            row = centerRow + ROW_OFFSETS[index];
+            column = centerColumn + COLUMN_OFFSETS[index];
+            index++;
+            boolean inside = snapshot != null ? snapshot.isInsideMap(row, column) : map.isInsideMap(row, column);
+            if (inside) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * Returns true if the current neighbor is a diagonal neighbor
+     * @return
+     */
+    public boolean isDiagonal() {
+        return index <= 4;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * This code is written as a part of a Master Thesis
+ * the spring of 2016.
+ *
+ * Eirik Thon(Master 2016 @ NTNU)
+ */
+package no.ntnu.et.map;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps one bit per cell telling if the cell has been observed. The bits of
+ * 64 neighboring cells in a row are stored in one long, so the number of
+ * observed cells in a part of a row can be counted with a few bit counts
+ * instead of one lookup per cell. The bits are stored in blocks of 64 x 64
+ * cells, which are allocated when the first cell in them is observed. A long
+ * covers cells in several chunks of the map, so the bits are set atomically.
+ *
+ * @author Eirik Thon
+ */
+class ObservedCellBitmap {
+    private static final int BLOCK_SHIFT = 6;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+    private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+    private static final int MINIMUM_SLACK = 2;
+
+    private volatile Directory directory;
+
+    /**
+     * The table of blocks and the area it covers, counted in blocks. Each
+     * block has one long per row.
+     */
+    private static class Directory {
+        final int originRow;
+        final int originColumn;
+        final int rows;
+        final int columns;
+        final AtomicLongArray[] blocks;
+
+        Directory(int originRow, int originColumn, int rows, int columns) {
+            this.originRow = originRow;
+            this.originColumn = originColumn;
+            this.rows = rows;
+            this.columns = columns;
+            blocks = new AtomicLongArray[rows * columns];
+        }
+
+        boolean covers(int blockRow, int blockColumn) {
+            return blockRow >= originRow && blockRow < originRow + rows
+                    && blockColumn >= originColumn && blockColumn < originColumn + columns;
+        }
+
+        AtomicLongArray getBlock(int blockRow, int blockColumn) {
+            if (!covers(blockRow, blockColumn)) {
+                return null;
+            }
+            return blocks[(blockRow - originRow) * columns + (blockColumn - originColumn)];
+        }
+    }
+
+    ObservedCellBitmap() {
+        directory = new Directory(0, 0, 0, 0);
+    }
+
+    /**
+     * Marks the cell at (row, column) as observed
+     * @param row
+     * @param column
+     */
+    void setObserved(int row, int column) {
+        AtomicLongArray block = directory.getBlock(row >> BLOCK_SHIFT, column >> BLOCK_SHIFT);
+        if (block == null) {
+            block = createBlock(row >> BLOCK_SHIFT, column >> BLOCK_SHIFT);
+        }
+        int i = row & BLOCK_MASK;
+        long bit = 1L << (column & BLOCK_MASK);
+        long bits = block.get(i);
+        while ((bits & bit) == 0 && !block.compareAndSet(i, bits, bits | bit)) {
+            bits = block.get(i);
+        }
+    }
+
+    /**
+     * Returns the number of observed cells in the specified row from
+     * leftColumn to rightColumn, both included
+     * @param row
+     * @param leftColumn
+     * @param rightColumn
+     * @return
+     */
+    int countObserved(int row, int leftColumn, int rightColumn) {
+        Directory d = directory;
+        int blockRow = row >> BLOCK_SHIFT;
+        int counter = 0;
+        for (int blockColumn = leftColumn >> BLOCK_SHIFT; blockColumn <= rightColumn >> BLOCK_SHIFT; blockColumn++) {
+            AtomicLongArray block = d.getBlock(blockRow, blockColumn);
+            if (block == null) {
+                continue;
+            }
+            long mask = -1L;
+            if (blockColumn == leftColumn >> BLOCK_SHIFT) {
+                mask &= -1L << (leftColumn & BLOCK_MASK);
+            }
+            if (blockColumn == rightColumn >> BLOCK_SHIFT) {
+                mask &= -1L >>> (BLOCK_MASK - (rightColumn & BLOCK_MASK));
+            }
+            counter += Long.bitCount(block.get(row & BLOCK_MASK) & mask);
+        }
+        return counter;
+    }
+
+    private synchronized AtomicLongArray createBlock(int blockRow, int blockColumn) {
+        Directory old = directory;
+        if (!old.covers(blockRow, blockColumn)) {
+            grow(blockRow, blockColumn);
+        }
+        Directory d = directory;
+        int i = (blockRow - d.originRow) * d.columns + (blockColumn - d.originColumn);
+        if (d.blocks[i] == null) {
+            d.blocks[i] = new AtomicLongArray(BLOCK_SIZE);
+        }
+        return d.blocks[i];
+    }
+
+    /**
+     * Creates a larger directory that also covers the specified block. Only
+     * the references to the blocks are copied.
+     */
+    private void grow(int blockRow, int blockColumn) {
+        Directory old = directory;
+        if (old.rows == 0) {
+            directory = new Directory(blockRow, blockColumn, 1, 1);
+            return;
+        }
+        int bottom = Math.min(blockRow, old.originRow);
+        int top = Math.max(blockRow, old.originRow + old.rows - 1);
+        int left = Math.min(blockColumn, old.originColumn);
+        int right = Math.max(blockColumn, old.originColumn + old.columns - 1);
+        if (bottom < old.originRow) {
+            bottom -= MINIMUM_SLACK;
+        }
+        if (top >= old.originRow + old.rows) {
+            top += MINIMUM_SLACK;
+        }
+        if (left < old.originColumn) {
+            left -= MINIMUM_SLACK;
+        }
+        if (right >= old.originColumn + old.columns) {
+            right += MINIMUM_SLACK;
+        }
+        Directory newDirectory = new Directory(bottom, left, top - bottom + 1, right - left + 1);
+        for (int i = 0; i < old.rows; i++) {
+            int to = (old.originRow + i - bottom) * newDirectory.columns + (old.originColumn - left);
+            System.arraycopy(old.blocks, i * old.columns, newDirectory.blocks, to, old.columns);
+        }
+        directory = newDirectory;
+    }
+}
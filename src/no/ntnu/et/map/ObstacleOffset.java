@@ -0,0 +1,56 @@
+/*
+ * This code is written as a part of a Master Thesis
+ * the spring of 2016.
+ *
+ * Eirik Thon(Master 2016 @ NTNU)
+ */
+package no.ntnu.et.map;
+
+/**
+ * Static functions for the offset from a cell to its nearest occupied cell,
+ * as it is kept in a CellStorage. The row and column offsets are stored in
+ * one value that fits in 16 bits, and the distance to the obstacle follows
+ * from the offsets, so no distance has to be stored. The offsets must be
+ * between -127 and 127. The value 0 (CellStorage.NO_OBSTACLE) is never used
+ * for an offset.
+ *
+ * @author Eirik Thon
+ */
+final class ObstacleOffset {
+
+    private ObstacleOffset() {
+    }
+
+    /**
+     * Encodes the offset from a cell to an obstacle
+     * @param rowOffset obstacle row minus cell row
+     * @param columnOffset obstacle column minus cell column
+     * @return
+     */
+    static int encode(int rowOffset, int columnOffset) {
+        return ((rowOffset + 128) << 8) | (columnOffset + 128);
+    }
+
+    static int getRowOffset(int offset) {
+        return (offset >>> 8) - 128;
+    }
+
+    static int getColumnOffset(int offset) {
+        return (offset & 0xFF) - 128;
+    }
+
+    /**
+     * Returns the squared distance in cells to the obstacle, or
+     * Integer.MAX_VALUE for CellStorage.NO_OBSTACLE
+     * @param offset
+     * @return
+     */
+    static int squaredDistance(int offset) {
+        if (offset == CellStorage.NO_OBSTACLE) {
+            return Integer.MAX_VALUE;
+        }
+        int rowOffset = getRowOffset(offset);
+        int columnOffset = getColumnOffset(offset);
+        return rowOffset * rowOffset + columnOffset * columnOffset;
+    }
+}
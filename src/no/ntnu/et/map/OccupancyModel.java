@@ -0,0 +1,119 @@
+/*
+ * This code is written as a part of a Master Thesis
+ * the spring of 2016.
+ *
+ * Eirik Thon(Master 2016 @ NTNU)
+ */
+package no.ntnu.et.map;
+
+/**
+ * Decides when a cell is occupied from the measurements of it. Each cell
+ * stores the log-odds of being occupied as a byte, in units of 0.05. A
+ * measurement of an obstacle adds to the log-odds, a measurement of free space
+ * subtracts from them, and the result is clamped so that a cell never becomes
+ * too certain to change. A cell becomes occupied when the log-odds reach the
+ * occupied threshold and free when they fall to the free threshold. Between
+ * the thresholds it keeps its previous state, so a single noisy measurement
+ * does not flip a cell that has been measured many times.
+ *
+ * The binary model is the original behaviour of the map, where a cell is
+ * occupied if and only if its latest measurement was an obstacle.
+ *
+ * @author Eirik Thon
+ */
+class OccupancyModel {
+    private final int hit;
+    private final int miss;
+    private final int minimum;
+    private final int maximum;
+    private final int occupiedThreshold;
+    private final int freeThreshold;
+
+    private OccupancyModel(int hit, int miss, int minimum, int maximum, int occupiedThreshold, int freeThreshold) {
+        this.hit = hit;
+        this.miss = miss;
+        this.minimum = minimum;
+        this.maximum = maximum;
+        this.occupiedThreshold = occupiedThreshold;
+        this.freeThreshold = freeThreshold;
+    }
+
+    /**
+     * Returns a model where every measurement decides the state of the cell.
+     * A single measurement moves the log-odds across the whole clamped range.
+     * @return
+     */
+    static OccupancyModel createBinary() {
+        return new OccupancyModel(255, -255, -127, 127, 1, -1);
+    }
+
+    /**
+     * Returns a model where an obstacle counts as p = 0.7 and free space as
+     * p = 0.4, clamped to p = [0.12, 0.97]. An unknown cell becomes occupied
+     * at the first obstacle, while a cell that has been occupied for a while
+     * needs ten measurements of free space to become free.
+     * @return
+     */
+    static OccupancyModel createLogOdds() {
+        return new OccupancyModel(17, -8, -40, 70, 17, -8);
+    }
+
+    /**
+     * Returns the log-odds of a cell after a new measurement
+     * @param logOdds
+     * @param measurement true if an obstacle was measured
+     * @return
+     */
+    int update(int logOdds, boolean measurement) {
+        logOdds += measurement ? hit : miss;
+        return Math.max(minimum, Math.min(maximum, logOdds));
+    }
+
+    /**
+     * Returns the log-odds of a cell after several measurements of it. The
+     * earlier measurements are added together and clamped once, and then the
+     * latest measurement is added. With the binary model this gives the same
+     * result as adding the measurements one at a time, since the latest
+     * measurement decides the state.
+     * @param logOdds
+     * @param hits the number of earlier measurements of an obstacle
+     * @param misses the number of earlier measurements of free space
+     * @param latest the latest measurement
+     * @return
+     */
+    int update(int logOdds, int hits, int misses, boolean latest) {
+        if (hits != 0 || misses != 0) {
+            logOdds += hits * hit + misses * miss;
+            logOdds = Math.max(minimum, Math.min(maximum, logOdds));
+        }
+        return update(logOdds, latest);
+    }
+
+    /**
+     * Returns the log-odds of a cell that is occupied or free, but only just.
+     * Used when a map is restored, since a saved map does not hold the
+     * log-odds of its cells. A restored cell can then be changed by as few
+     * measurements as any cell that has just changed state.
+     * @param occupied
+     * @return
+     */
+    int getThresholdLogOdds(boolean occupied) {
+        return occupied ? occupiedThreshold : freeThreshold;
+    }
+
+    /**
+     * Returns the state of a cell with the specified log-odds
+     * @param logOdds
+     * @param wasOccupied the state of the cell before the latest measurement
+     * @return
+     */
+    boolean isOccupied(int logOdds, boolean wasOccupied) {
+        if (logOdds >= occupiedThreshold) {
+            return true;
+        }
+        if (logOdds <= freeThreshold) {
+            return false;
+        }
+        return wasOccupied;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * This code is written as a part of a Master Thesis
+ * the spring of 2016.
+ *
+ * Eirik Thon(Master 2016 @ NTNU)
+ */
+package no.ntnu.et.map;
+
+/**
+ * Static functions for locations in a grid that are packed into a single long
+ * instead of a MapLocation object. The packed value is row * 2^32 + column,
+ * so packed locations sort in the same order as the cells are stored in the
+ * map, bottom row first, and no object has to be created to use a location
+ * as a key.
+ *
+ * @author Eirik Thon
+ */
+public final class PackedLocation {
+
+    private PackedLocation() {
+    }
+
+    /**
+     * Packs a row and a column into a long
+     * @param row
+     * @param column
+     * @return
+     */
+    public static long pack(int row, int column) {
+        return ((long) row << 32) + column;
+    }
+
+    /**
+     * Returns the row of a packed location
+     * @param location
+     * @return
+     */
+    public static int getRow(long location) {
+        return (int) ((location - getColumn(location)) >> 32);
+    }
+
+    /**
+     * Returns the column of a packed location
+     * @param location
+     * @return
+     */
+    public static int getColumn(long location) {
+        return (int) location;
+    }
+
+    /**
+     * Returns the sum of two packed locations
+     * @param location1
+     * @param location2
+     * @return
+     */
+    public static long sum(long location1, long location2) {
+        return pack(getRow(location1) + getRow(location2), getColumn(location1) + getColumn(location2));
+    }
+
+    /**
+     * Returns the distance between two packed locations. OBS: Not the real
+     * distance as cell size is no accounted for
+     * @param location1
+     * @param location2
+     * @return
+     */
+    public static double distance(long location1, long location2) {
+        double rows = getRow(location1) - getRow(location2);
+        double columns = getColumn(location1) - getColumn(location2);
+        return Math.sqrt(rows * rows + columns * columns);
+    }
+
+    /**
+     * Transforms (row, column) into the first octant. See
+     * MapLocation.switchToOctantZeroFrom
+     * @param octant
+     * @param row
+     * @param column
+     * @return the transformed location, packed
+     */
+    public static long switchToOctantZeroFrom(int octant, int row, int column) {
+        switch (octant) {
+            case 0:
+                return pack(row, column);
+            case 1:
+                return pack(column, row);
+            case 2:
+                return pack(-column, row);
+            case 3:
+                return pack(row, -column);
+            case 4:
+                return pack(-row, -column);
+            case 5:
+                return pack(-column, -row);
+            case 6:
+                return pack(column, -row);
+            case 7:
+                return pack(-row, column);
+            default:
+                System.out.println("ERROR INVALID OCTANT: " + octant);
+                return pack(0, 0);
+        }
+    }
+
+    /**
+     * Transforms (row, column) back to its original octant. See
+     * MapLocation.switchFromOctantZeroTo
+     * @param octant
+     * @param row
+     * @param column
+     * @return the transformed location, packed
+     */
+    public static long switchFromOctantZeroTo(int octant, int row, int column) {
+        switch (octant) {
+            case 0:
+                return pack(row, column);
+            case 1:
+                return pack(column, row);
+            case 2:
+                return pack(column, -row);
+            case 3:
+                return pack(row, -column);
+            case 4:
+                return pack(-row, -column);
+            case 5:
+                return pack(-column, -row);
+            case 6:
+                return pack(-column, row);
+            case 7:
+                return pack(-row, column);
+            default:
+                return pack(0, 0);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * This code is written as a part of a Master Thesis
+ * the spring of 2016.
+ *
+ * Eirik Thon(Master 2016 @ NTNU)
+ */
+package no.ntnu.et.map;
+
+/**
+ * Base class for cell storages that keep each cell as a packed state
+ * (CellState) and the offset to the nearest obstacle (ObstacleOffset) in
+ * primitive arrays, so that a cell takes four bytes. Subclasses only decide
+ * where the arrays are and how a row and column is mapped to an index.
+ *
+ * @author Eirik Thon
+ */
+abstract class PrimitiveCellStorage implements CellStorage {
+    private static final int OBSERVED = CellState.OBSERVED;
+    private static final int OCCUPIED = CellState.OCCUPIED;
+    private static final int RESTRICTED = CellState.RESTRICTED;
+    private static final int WEAKLY_RESTRICTED = CellState.WEAKLY_RESTRICTED;
+    private static final int FRONTIER = CellState.FRONTIER;
+
+    private final OccupancyModel model;
+
+    PrimitiveCellStorage(OccupancyModel model) {
+        this.model = model;
+    }
+
+    /**
+     * Returns the packed state of the cell at (row, column), see CellState
+     * @param row
+     * @param column
+     * @return
+     */
+    abstract int getState(int row, int column);
+
+    abstract void setState(int row, int column, int state);
+
+    final int getFlags(int row, int column) {
+        return CellState.getFlags(getState(row, column));
+    }
+
+    final void setFlags(int row, int column, int flags) {
+        setState(row, column, CellState.setFlags(getState(row, column), flags));
+    }
+
+    @Override
+    public Cell getCell(int row, int column) {
+        return new PrimitiveCell(row, column);
+    }
+
+    @Override
+    public boolean update(int row, int column, boolean measurement) {
+        return update(row, column, 0, 0, measurement);
+    }
+
+    @Override
+    public boolean update(int row, int column, int hits, int misses, boolean latest) {
+        int oldState = getState(row, column);
+        int logOdds = model.update(CellState.getLogOdds(oldState), hits, misses, latest);
+        int flags = CellState.getFlags(oldState) | OBSERVED;
+        if (model.isOccupied(logOdds, (oldState & OCCUPIED) != 0)) {
+            flags |= OCCUPIED;
+        } else {
+            flags &= ~OCCUPIED;
+        }
+        int newState = CellState.pack(flags, logOdds);
+        if (newState != oldState) {
+            setState(row, column, newState);
+        }
+        return CellState.isOccupied(oldState) != CellState.isOccupied(newState);
+    }
+
+    @Override
+    public void restore(int row, int column, boolean occupied) {
+        int flags = getFlags(row, column) | OBSERVED;
+        flags = occupied ? flags | OCCUPIED : flags & ~OCCUPIED;
+        setState(row, column, CellState.pack(flags, model.getThresholdLogOdds(occupied)));
+    }
+
+    @Override
+    public boolean setRestricted(int row, int column, boolean weakly, boolean restricted) {
+        int flags = getFlags(row, column);
+        int flag = weakly ? WEAKLY_RESTRICTED : RESTRICTED;
+        if (((flags & flag) != 0) == restricted) {
+            return false;
+        }
+        setFlags(row, column, restricted ? flags | flag : flags & ~flag);
+        return true;
+    }
+
+    @Override
+    public boolean isPreviouslyObserved(int row, int column) {
+        return (getFlags(row, column) & OBSERVED) != 0;
+    }
+
+    @Override
+    public boolean isOccupied(int row, int column) {
+        return CellState.isOccupied(getState(row, column));
+    }
+
+    @Override
+    public boolean isRestricted(int row, int column) {
+        return (getFlags(row, column) & RESTRICTED) != 0;
+    }
+
+    @Override
+    public boolean isWeaklyRestricted(int row, int column) {
+        return (getFlags(row, column) & WEAKLY_RESTRICTED) != 0;
+    }
+
+    @Override
+    public boolean isFrontier(int row, int column) {
+        return (getFlags(row, column) & FRONTIER) != 0;
+    }
+
+    @Override
+    public void setFrontier(int row, int column, boolean frontier) {
+        setFlag(row, column, FRONTIER, frontier);
+    }
+
+    private void setFlag(int row, int column, int flag, boolean value) {
+        int flags = getFlags(row, column);
+        if (value) {
+            setFlags(row, column, flags | flag);
+        } else {
+            setFlags(row, column, flags & ~flag);
+        }
+    }
+
+    /**
+     * Cell object that reads and writes directly to the arrays of the storage.
+     * It is only created when someone asks for a Cell object.
+     */
+    private class PrimitiveCell extends Cell {
+        private final int row;
+        private final int column;
+
+        PrimitiveCell(int row, int column) {
+            this.row = row;
+            this.column = column;
+        }
+
+        @Override
+        int getNearestObstacle() {
+            return PrimitiveCellStorage.this.getNearestObstacle(row, column);
+        }
+
+        @Override
+        void setNearestObstacle(int nearestObstacle) {
+            PrimitiveCellStorage.this.setNearestObstacle(row, column, nearestObstacle);
+        }
+
+        @Override
+        void setWeaklyRestricted(boolean weaklyRestricted) {
+            setFlag(row, column, WEAKLY_RESTRICTED, weaklyRestricted);
+        }
+
+        @Override
+        public boolean isWeaklyRestricted() {
+            return PrimitiveCellStorage.this.isWeaklyRestricted(row, column);
+        }
+
+        @Override
+        void update(int hits, int misses, boolean latest, OccupancyModel model) {
+            PrimitiveCellStorage.this.update(row, column, hits, misses, latest);
+        }
+
+        @Override
+        public void setFrontier() {
+            setFlag(row, column, FRONTIER, true);
+        }
+
+        @Override
+        public void setNotFrontier() {
+            setFlag(row, column, FRONTIER, false);
+        }
+
+        @Override
+        boolean isFrontierPoint() {
+            return PrimitiveCellStorage.this.isFrontier(row, column);
+        }
+
+        @Override
+        public void setUnrestricted() {
+            setFlag(row, column, RESTRICTED, false);
+        }
+
+        @Override
+        public void setRestricted() {
+            setFlag(row, column, RESTRICTED, true);
+        }
+
+        @Override
+        public boolean isRestricted() {
+            return PrimitiveCellStorage.this.isRestricted(row, column);
+        }
+
+        @Override
+        public boolean isPreviouslyObserved() {
+            return PrimitiveCellStorage.this.isPreviouslyObserved(row, column);
+        }
+
+        @Override
+        public boolean isFree() {
+            int flags = getFlags(row, column);
+            return (flags & (OBSERVED | OCCUPIED)) == OBSERVED;
+        }
+
+        @Override
+        public boolean isOccupied() {
+            return PrimitiveCellStorage.this.isOccupied(row, column);
+        }
+
+        @Override
+        public boolean isWeaklyTargetable() {
+            int flags = getFlags(row, column);
+            return (flags & (OBSERVED | OCCUPIED | RESTRICTED)) == OBSERVED;
+        }
+
+        @Override
+        public boolean isFreelyTargetable() {
+            int flags = getFlags(row, column);
+            return (flags & (OBSERVED | OCCUPIED | RESTRICTED | WEAKLY_RESTRICTED)) == OBSERVED;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * This code is written as a part of a Master Thesis
+ * the spring of 2016.
+ *
+ * Eirik Thon(Master 2016 @ NTNU)
+ */
+package no.ntnu.et.map;
+
+import java.util.Arrays;
+
+/**
+ * Finds the cells on a straight line between two cells with Bresenham's line
+ * algorithm. The cells are written into buffers that are reused for every
+ * line, so casting a ray does not create any objects once the buffers are
+ * large enough. A RayCaster must only be used by one thread.
+ *
+ * Usage:
+ * <pre>
+ * RayCaster ray = new RayCaster();
+ * ray.cast(startRow, startColumn, endRow, endColumn);
+ * for (int i = 0; i < ray.size(); i++) {
+ *     ... ray.getRow(i), ray.getColumn(i) ...
+ * }
+ * </pre>
+ *
+ * @author Eirik Thon
+ */
+public class RayCaster {
+    private int[] rows;
+    private int[] columns;
+    private int size;
+
+    public RayCaster() {
+        rows = new int[64];
+        columns = new int[64];
+        size = 0;
+    }
+
+    /**
+     * Finds the cells on the line from the start cell to the end cell. The
+     * start cell is the first cell of the line and the end cell is not part
+     * of it, so the line has one cell for each step along its longest axis.
+     * If the start and end are the same cell the line holds only that cell.
+     * @param startRow
+     * @param startColumn
+     * @param endRow
+     * @param endColumn
+     * @return the number of cells on the line
+     */
+    public int cast(int startRow, int startColumn, int endRow, int endColumn) {
+        int dy = endRow - startRow;
+        int dx = endColumn - startColumn;
+        int octant = findOctant(dy, dx);
+
+        // The line is drawn in the first octant and transformed back, see
+        // PackedLocation.switchToOctantZeroFrom
+        long end = PackedLocation.switchToOctantZeroFrom(octant, dy, dx);
+        int endX = PackedLocation.getColumn(end);
+        int endY = PackedLocation.getRow(end);
+        long xStep = PackedLocation.switchFromOctantZeroTo(octant, 0, 1);
+        long yStep = PackedLocation.switchFromOctantZeroTo(octant, 1, 0);
+        int rowPerX = PackedLocation.getRow(xStep);
+        int columnPerX = PackedLocation.getColumn(xStep);
+        int rowPerY = PackedLocation.getRow(yStep);
+        int columnPerY = PackedLocation.getColumn(yStep);
+
+        size = Math.max(endX, 1);
+        if (size > rows.length) {
+            int length = Math.max(size, rows.length * 2);
+            rows = Arrays.copyOf(rows, length);
+            columns = Arrays.copyOf(columns, length);
+        }
+        rows[0] = startRow;
+        columns[0] = startColumn;
+        int D = 2 * endY - endX;
+        int y = 0;
+        if (D > 0) {
+            y = y + 1;
+            D = D - (2 * endX);
+        }
+        for (int x = 1; x < endX; x++) {
+            rows[x] = startRow + x * rowPerX + y * rowPerY;
+            columns[x] = startColumn + x * columnPerX + y * columnPerY;
+            D = D + (2 * endY);
+            if (D > 0) {
+                y = y + 1;
+                D = D - (2 * endX);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of cells on the last line that was cast
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getRow(int index) {
+        return rows[index];
+    }
+
+    public int getColumn(int index) {
+        return columns[index];
+    }
+
+    /**
+     * Returns the octant of the direction (dy, dx) in the same way as
+     * MapLocation.getOctant does for the angle of the direction
+     */
+    private static int findOctant(int dy, int dx) {
+        if (dy > 0) {
+            if (dx >= dy) {
+                return 0;
+            }
+            if (dx >= 0) {
+                return 1;
+            }
+            return -dx <= dy ? 2 : 3;
+        }
+        if (dy == 0) {
+            return dx < 0 ? 3 : 7;
+        }
+        if (dx <= 0) {
+            return dy >= dx ? 4 : 5;
+        }
+        return dx <= -dy ? 6 : 7;
+    }
+}
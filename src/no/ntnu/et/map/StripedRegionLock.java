@@ -0,0 +1,100 @@
+/*
+ * This code is written as a part of a Master Thesis
+ * the spring of 2016.
+ *
+ * Eirik Thon(Master 2016 @ NTNU)
+ */
+package no.ntnu.et.map;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Read/write locks for regions of a GridMap. The map is divided into square
+ * chunks, and each chunk is guarded by one of 64 locks (stripes). Chunks are
+ * assigned to stripes in an 8 x 8 pattern, so a region of up to 8 x 8 chunks
+ * never has two chunks sharing a stripe. Locking a region locks the stripes of
+ * all chunks it overlaps, always in increasing stripe order so that two
+ * threads locking overlapping regions can not deadlock.
+ *
+ * The locked stripes are returned as a bit mask, which must be passed back
+ * when the region is unlocked. A thread holding a region must not lock another
+ * region before it has unlocked the first one.
+ *
+ * @author Eirik Thon
+ */
+class StripedRegionLock {
+    private static final int STRIPES = 64;
+
+    private final int chunkSize;
+    private final ReentrantReadWriteLock[] locks;
+
+    /**
+     * Creates locks for chunks of chunkSize x chunkSize cells
+     * @param chunkSize
+     */
+    StripedRegionLock(int chunkSize) {
+        this.chunkSize = chunkSize;
+        locks = new ReentrantReadWriteLock[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    /**
+     * Locks all chunks that overlap the specified region
+     * @param bottom
+     * @param top
+     * @param left
+     * @param right
+     * @param exclusive true to lock for writing, false to lock for reading
+     * @return the locked stripes
+     */
+    long lock(int bottom, int top, int left, int right, boolean exclusive) {
+        long stripes = findStripes(bottom, top, left, right);
+        long remaining = stripes;
+        while (remaining != 0) {
+            int i = Long.numberOfTrailingZeros(remaining);
+            if (exclusive) {
+                locks[i].writeLock().lock();
+            } else {
+                locks[i].readLock().lock();
+            }
+            remaining &= remaining - 1;
+        }
+        return stripes;
+    }
+
+    /**
+     * Unlocks stripes that were locked with lock
+     * @param stripes the value returned by lock
+     * @param exclusive must be the same as when the stripes were locked
+     */
+    void unlock(long stripes, boolean exclusive) {
+        long remaining = stripes;
+        while (remaining != 0) {
+            int i = 63 - Long.numberOfLeadingZeros(remaining);
+            if (exclusive) {
+                locks[i].writeLock().unlock();
+            } else {
+                locks[i].readLock().unlock();
+            }
+            remaining &= ~(1L << i);
+        }
+    }
+
+    private long findStripes(int bottom, int top, int left, int right) {
+        int bottomChunk = Math.floorDiv(bottom, chunkSize);
+        int topChunk = Math.floorDiv(top, chunkSize);
+        int leftChunk = Math.floorDiv(left, chunkSize);
+        int rightChunk = Math.floorDiv(right, chunkSize);
+        // The pattern repeats every 8 chunks, so no more than 8 chunks in each
+        // direction have to be looked at
+        long stripes = 0;
+        for (int i = bottomChunk; i <= Math.min(topChunk, bottomChunk + 7); i++) {
+            for (int j = leftChunk; j <= Math.min(rightChunk, leftChunk + 7); j++) {
+                stripes |= 1L << (((i & 7) << 3) | (j & 7));
+            }
+        }
+        return stripes;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * This code is written as a part of a Master Thesis
+ * the spring of 2016.
+ *
+ * Eirik Thon(Master 2016 @ NTNU)
+ */
+package no.ntnu.et.map;
+
+/**
+ * Cell storage where the map is divided into square tiles of TILE_SIZE x
+ * TILE_SIZE cells. A tile is only allocated the first time one of its cells is
+ * written to. Cells in tiles that are not allocated are unobserved and have no
+ * restrictions, so growing the map costs nothing until the new area is
+ * actually explored, and the memory use follows the explored area instead of
+ * the bounding box of the map.
+ *
+ * The storage is not limited to the area created with addCells. Cells outside
+ * the boundaries of the map can be written to, which lets the GridMap add
+ * restrictions to cells before they become part of the map.
+ *
+ * @author Eirik Thon
+ */
+class TiledCellStorage extends PrimitiveCellStorage {
+    private static final int TILE_SHIFT = 5;
+    private static final int TILE_SIZE = 1 << TILE_SHIFT;
+    private static final int TILE_MASK = TILE_SIZE - 1;
+    private static final int MINIMUM_SLACK = 2;
+
+    private volatile Directory directory;
+
+    /**
+     * The state of the cells in one tile
+     */
+    private static class Tile {
+        final short[] states = new short[TILE_SIZE * TILE_SIZE];
+        final short[] nearestObstacles = new short[TILE_SIZE * TILE_SIZE];
+    }
+
+    /**
+     * The table of tiles and the area it covers, counted in tiles. Tiles that
+     * have not been allocated are null. A new Directory is created when a cell
+     * outside the current one is written to, so that readers always see a
+     * table and offsets that belong together.
+     */
+    private static class Directory {
+        final int originRow;
+        final int originColumn;
+        final int rows;
+        final int columns;
+        final Tile[] tiles;
+
+        Directory(int originRow, int originColumn, int rows, int columns) {
+            this.originRow = originRow;
+            this.originColumn = originColumn;
+            this.rows = rows;
+            this.columns = columns;
+            tiles = new Tile[rows * columns];
+        }
+
+        boolean covers(int bottomRow, int topRow, int leftColumn, int rightColumn) {
+            return bottomRow >= originRow && topRow < originRow + rows
+                    && leftColumn >= originColumn && rightColumn < originColumn + columns;
+        }
+
+        Tile getTile(int tileRow, int tileColumn) {
+            if (!covers(tileRow, tileRow, tileColumn, tileColumn)) {
+                return null;
+            }
+            return tiles[(tileRow - originRow) * columns + (tileColumn - originColumn)];
+        }
+    }
+
+    TiledCellStorage(OccupancyModel model) {
+        super(model);
+        directory = new Directory(0, 0, 0, 0);
+    }
+
+    @Override
+    public void addCells(int bottomRow, int topRow, int leftColumn, int rightColumn) {
+        ensureDirectory(bottomRow >> TILE_SHIFT, topRow >> TILE_SHIFT,
+                leftColumn >> TILE_SHIFT, rightColumn >> TILE_SHIFT);
+    }
+
+    @Override
+    public boolean isUnbounded() {
+        return true;
+    }
+
+    /**
+     * Returns the number of tiles that have been allocated
+     * @return
+     */
+    int getNumberOfTiles() {
+        int tiles = 0;
+        for (Tile tile : directory.tiles) {
+            if (tile != null) {
+                tiles++;
+            }
+        }
+        return tiles;
+    }
+
+    private static int index(int row, int column) {
+        return ((row & TILE_MASK) << TILE_SHIFT) | (column & TILE_MASK);
+    }
+
+    private Tile findTile(int row, int column) {
+        return directory.getTile(row >> TILE_SHIFT, column >> TILE_SHIFT);
+    }
+
+    /**
+     * Returns the tile containing the cell at (row, column). The tile is
+     * allocated if it does not exist.
+     */
+    private Tile getOrCreateTile(int row, int column) {
+        Tile tile = findTile(row, column);
+        if (tile != null) {
+            return tile;
+        }
+        return createTile(row >> TILE_SHIFT, column >> TILE_SHIFT);
+    }
+
+    private synchronized Tile createTile(int tileRow, int tileColumn) {
+        ensureDirectory(tileRow, tileRow, tileColumn, tileColumn);
+        Directory d = directory;
+        int i = (tileRow - d.originRow) * d.columns + (tileColumn - d.originColumn);
+        if (d.tiles[i] == null) {
+            d.tiles[i] = new Tile();
+        }
+        return d.tiles[i];
+    }
+
+    /**
+     * Makes sure the directory covers the specified area, counted in tiles.
+     * Only the references to the tiles are copied when the directory grows.
+     */
+    private synchronized void ensureDirectory(int bottom, int top, int left, int right) {
+        Directory old = directory;
+        if (old.rows == 0) {
+            directory = new Directory(bottom, left, top - bottom + 1, right - left + 1);
+            return;
+        }
+        if (old.covers(bottom, top, left, right)) {
+            return;
+        }
+        bottom = Math.min(bottom, old.originRow);
+        top = Math.max(top, old.originRow + old.rows - 1);
+        left = Math.min(left, old.originColumn);
+        right = Math.max(right, old.originColumn + old.columns - 1);
+        int rowSlack = Math.max(MINIMUM_SLACK, (top - bottom + 1) / 2);
+        int columnSlack = Math.max(MINIMUM_SLACK, (right - left + 1) / 2);
+        if (bottom < old.originRow) {
+            bottom -= rowSlack;
+        }
+        if (top >= old.originRow + old.rows) {
+            top += rowSlack;
+        }
+        if (left < old.originColumn) {
+            left -= columnSlack;
+        }
+        if (right >= old.originColumn + old.columns) {
+            right += columnSlack;
+        }
+        Directory newDirectory = new Directory(bottom, left, top - bottom + 1, right - left + 1);
+        for (int i = 0; i < old.rows; i++) {
+            int to = (old.originRow + i - bottom) * newDirectory.columns + (old.originColumn - left);
+            System.arraycopy(old.tiles, i * old.columns, newDirectory.tiles, to, old.columns);
+        }
+        directory = newDirectory;
+    }
+
+    @Override
+    int getState(int row, int column) {
+        Tile tile = findTile(row, column);
+        if (tile == null) {
+            return 0;
+        }
+        return tile.states[index(row, column)] & 0xFFFF;
+    }
+
+    @Override
+    void setState(int row, int column, int state) {
+        Tile tile = state == 0 ? findTile(row, column) : getOrCreateTile(row, column);
+        if (tile != null) {
+            tile.states[index(row, column)] = (short) state;
+        }
+    }
+
+    @Override
+    public int getNearestObstacle(int row, int column) {
+        Tile tile = findTile(row, column);
+        if (tile == null) {
+            return NO_OBSTACLE;
+        }
+        return tile.nearestObstacles[index(row, column)] & 0xFFFF;
+    }
+
+    @Override
+    public void setNearestObstacle(int row, int column, int nearestObstacle) {
+        Tile tile = nearestObstacle == NO_OBSTACLE ? findTile(row, column) : getOrCreateTile(row, column);
+        if (tile != null) {
+            tile.nearestObstacles[index(row, column)] = (short) nearestObstacle;
+        }
+    }
+}
@@ -6,13 +6,22 @@
  */
 package no.ntnu.et.mapping;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import org.ejml.simple.SimpleMatrix;
-import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 import no.ntnu.tem.application.RobotController;
 import no.ntnu.et.map.GridMap;
+import no.ntnu.et.map.MapFile;
 import no.ntnu.et.map.MapLocation;
+import no.ntnu.et.map.MeasurementBatch;
+import no.ntnu.et.map.RayCaster;
 import no.ntnu.et.general.Angle;
 import no.ntnu.et.general.Pose;
 import no.ntnu.et.general.Position;
@@ -28,18 +37,41 @@ import no.ntnu.et.mapping.TransformationAlg;
  */
 public class MappingController extends Thread {
 
-    ArrayList<String> robotNames;
+    // Time in ms between each time the map is saved to the map file
+    private static final int MAP_FILE_INTERVAL = 5000;
+    // Time in ms between each clean-up of the map
+    private static final int CLEAN_UP_INTERVAL = 1000;
+    // Longest time in ms the mapping waits for new measurements
+    private static final int MAX_WAIT = 100;
+    // Most measurements a worker puts in one batch
+    private static final int MAX_WORKER_BATCH_SIZE = 50;
+    // Most batches that are added to the map before a new snapshot is published
+    private static final int MAX_MERGED_BATCHES = 16;
+    // Number of batches that can wait for the mapping thread
+    private static final int BATCH_QUEUE_CAPACITY = 32;
+    // Measurements closer than this (in cm) to a robot are left out
+    private static final int ROBOT_CLEARANCE = 10;
+
+    CopyOnWriteArrayList<String> robotNames;
     private GridMap map;
+    private volatile MapFile mapFile;
+    private volatile int queueDepth;
+    private volatile int lastBatchSize;
+    // Batches from the workers that are ready to be added to the map, and
+    // empty batches that can be reused by the workers
+    private final LinkedBlockingQueue<MeasurementBatch> batches;
+    private final ConcurrentLinkedQueue<MeasurementBatch> freeBatches;
+    // The positions of the robots, updated by the mapping thread
+    private volatile RobotPositionIndex robotPositions;
 
     //test LMS
     private GridMap dockMap;
     //
 
     private RobotController robotController;
-    private HashMap<String, MeasurementHandler> measurementHandlers;
+    private ConcurrentHashMap<String, MappingWorker> workers;
     private Object nameLock = new Object();
-    private boolean paused;
-    private Thread mapCleaner;
+    private volatile boolean paused;
     private NavigationRobot navRobot;
     private final boolean debug = false;
 
@@ -51,16 +83,16 @@ public class MappingController extends Thread {
      */
     // Edited by LMS for docking purposes
     public MappingController(RobotController rc, GridMap map) {
-        measurementHandlers = new HashMap<String, MeasurementHandler>();
-        robotNames = new ArrayList<String>();
+        workers = new ConcurrentHashMap<String, MappingWorker>();
+        robotNames = new CopyOnWriteArrayList<String>();
+        batches = new LinkedBlockingQueue<MeasurementBatch>(BATCH_QUEUE_CAPACITY);
+        freeBatches = new ConcurrentLinkedQueue<MeasurementBatch>();
+        robotPositions = new RobotPositionIndex(new Robot[0], ROBOT_CLEARANCE);
         robotController = rc;
 
         this.map = map;
 
         setName("Mapping");
-        mapCleaner = new Thread(new MapCleaningWorker());
-        mapCleaner.start();
-        mapCleaner.setName("Map Cleaner");
     }
 
     /**
@@ -70,16 +102,20 @@ public class MappingController extends Thread {
      * @param name
      */
     public void addRobot(String name) {
-        robotNames.add(name);
         int[] initialRobotPose = robotController.getRobot(name).getInitialPosition();
         Pose initialPose = new Pose(initialRobotPose[0], initialRobotPose[1], initialRobotPose[2]);
         MeasurementHandler newHandler = new MeasurementHandler(robotController.getRobot(name), initialPose);
-        measurementHandlers.put(name, newHandler);
         int[] initialPosition = {(int) Math.round(initialPose.getPosition().getXValue()), (int) Math.round(initialPose.getPosition().getYValue())};
         robotController.getRobot(name).setPosition(initialPosition);
         robotController.getRobot(name).setRobotOrientation((int) Math.round(initialPose.getHeading().getValue()));
         robotController.getRobot(name).setDestination(initialPosition);
         map.resize(initialPose.getPosition());
+        robotNames.add(name);
+        MappingWorker worker = new MappingWorker(name, robotController.getRobot(name), newHandler);
+        workers.put(name, worker);
+        updateRobotPositions();
+        robotController.getRobot(name).setMeasurementConsumer(worker);
+        worker.start();
     }
 
     /**
@@ -89,7 +125,25 @@ public class MappingController extends Thread {
      */
     public void removeRobot(String name) {
         robotNames.remove(name);
-        measurementHandlers.remove(name);
+        MappingWorker worker = workers.remove(name);
+        if (worker != null) {
+            worker.interrupt();
+        }
+        updateRobotPositions();
+        Robot robot = robotController.getRobot(name);
+        if (robot != null) {
+            robot.setMeasurementConsumer(null);
+        }
+    }
+
+    /**
+     * Saves the map to the specified file every few seconds while the mapping
+     * runs
+     *
+     * @param mapFile
+     */
+    public void setMapFile(MapFile mapFile) {
+        this.mapFile = mapFile;
     }
 
     /**
@@ -120,135 +174,121 @@ public class MappingController extends Thread {
     }
 
     /**
-     * This is the core of the mapping process. The method updates the
-     * measurement handlers for each robot and adds the measurements into the
-     * map. Line of sight is also added into the map.
+     * Returns the number of measurements that were waiting in the queues of
+     * the robots after the last batch was added to the map. A number that
+     * keeps growing means that the robots measure faster than the mapping can
+     * keep up with.
+     *
+     * @return
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * Returns the number of batches made by the robot workers that are
+     * waiting to be added to the map
+     *
+     * @return
+     */
+    public int getPendingBatches() {
+        return batches.size();
+    }
+
+    /**
+     * Returns the number of cell updates in the last batch that was added to
+     * the map
+     *
+     * @return
+     */
+    public int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    /**
+     * This is the core of the mapping process. Each robot has a MappingWorker
+     * that turns its measurements into batches of cell updates, so the
+     * geometry for different robots is done in parallel. This thread is the
+     * only one that writes the measurements to the map. It waits for batches
+     * from the workers and adds all the batches that are ready to the map
+     * together, at most MAX_MERGED_BATCHES at a time, before a new snapshot
+     * of the map is published for the navigation and the GUI. Each round
+     * also makes a new index of the robot positions, which the workers use to
+     * leave out measurements of the other robots. About once every second the
+     * parts of the map that changed are cleaned up, and every few seconds the
+     * snapshot is saved to the map file.
      */
     @Override
     public void run() {
+        long lastCleanUp = System.currentTimeMillis();
+        long lastMapFileFlush = System.currentTimeMillis();
+        MeasurementBatch merged = new MeasurementBatch();
+        ArrayList<MeasurementBatch> ready = new ArrayList<MeasurementBatch>();
 
         // For testing
         int maxFrontierLocations = 0;
         int maxOccupied = 0;
-        int rangeScan = 0;
-        int numberOfScans = 530;
         boolean scanButton = false;
         while (true) {
+            MeasurementBatch first = null;
             try {
-                Thread.sleep(10);
+                if (paused) {
+                    Thread.sleep(MAX_WAIT);
+                    continue;
+                }
+                // The timeout lets the clean-up and the saving of the map run
+                // while no measurements arrive
+                first = batches.poll(MAX_WAIT, TimeUnit.MILLISECONDS);
             } catch (InterruptedException e) {
-                e.printStackTrace();
                 break;
             }
-            if (paused) {
-                continue;
+            updateRobotPositions();
+            if (System.currentTimeMillis() - lastCleanUp > CLEAN_UP_INTERVAL) {
+                lastCleanUp = System.currentTimeMillis();
+                map.cleanUp();
             }
-            for (int i = 0; i < robotNames.size(); i++) {
-                String name = robotNames.get(i);
-                Robot robot = robotController.getRobot(name);
-                if (measurementHandlers.get(name).updateMeasurement() == false) {
-                    continue;
+            if (first != null) {
+                ready.add(first);
+                batches.drainTo(ready, MAX_MERGED_BATCHES - 1);
+                for (MeasurementBatch batch : ready) {
+                    merged.addAll(batch);
+                    batch.clear();
+                    freeBatches.offer(batch);
                 }
-
-                Position robotPosition = measurementHandlers.get(name).getRobotPosition();
-                Angle robotAngle = measurementHandlers.get(name).getRobotHeading();
-
-                int[] position = {(int) Math.round(robotPosition.getXValue()), (int) Math.round(robotPosition.getYValue())};
-                robot.setPosition(position);
-                robot.setRobotOrientation((int) Math.round(robotAngle.getValue()));
-
-                // Find the location of the robot in the map
-                map.resize(robotPosition);
-                MapLocation robotLocation = map.findLocationInMap(robotPosition);
-
-                Sensor[] sensors = measurementHandlers.get(name).getIRSensorData();
-                int sensorOneValue = 0;
-
-                int sensCount = 0;
-
-                for (Sensor sensor : sensors) {
-                    sensCount++;
-
-                    boolean tooClose = false;
-
-                    // Check the distance between the position of the measurement and all the other robots
-                    for (int j = 0; j < robotNames.size(); j++) {
-                        String otherName = robotNames.get(j);
-                        int[] otherPositionInt = robotController.getRobot(otherName).getPosition();
-                        Position otherPosition = new Position(otherPositionInt[0], otherPositionInt[1]);
-                        if (Position.distanceBetween(otherPosition, sensor.getPosition()) < 10) {
-                            tooClose = true;
-                            break;
-                        }
-                    }
-
-                    // The measurement is only added to the map if it is at a certain distance to the other robots
-                    if (!tooClose) {
-                        int[] irheading = measurementHandlers.get(name).getSensorAngel();
-                        int[] irdata = measurementHandlers.get(name).getCurrentMeasurement().getIRdata();
-
-                        map.resize(sensor.getPosition());
-                        MapLocation measurementLocation = map.findLocationInMap(sensor.getPosition());
-                        Position target = new Position(measurementLocation.getColumn(), measurementLocation.getRow());
-                        if (sensor.isMeasurement()) {
-                            map.addMeasurement(measurementLocation, true);
-                        }
-                        // RangeScan near base for MapMatching on return sends once when the tower turns
-                        if (robot.isRangeScanBase() && !robot.isGoingHome()) {
-                            rangeScan++;
-                            robot.addToREF(target);
-                            if (rangeScan == numberOfScans) {
-                                endScan(robot);
-                                rangeScan = 0;
-                            }
-                        }
-                        // RangeScan near base for matching with ref.scan
-                        //System.out.println("Sensor: " + sensCount + " sends: " + measurementLocation.getColumn() + " " + measurementLocation.getRow());
-                        if (robot.isGoingHome() && robot.isRangeScanBase()) {
-                            rangeScan++;
-                            System.out.println(rangeScan);
-                            robot.addToNEW(target);
-                            System.out.println("Sensor: " + sensCount + " sends: " + irdata[sensCount-1]);
-                            if (rangeScan == numberOfScans) {
-                                endScan(robot);
-                                rangeScan = 0;
-                                initDocking(robot);
-                            }
-                        }
-                        // Find distance to backwall
-                        if (robot.getAdjustRobot() < -2 && sensCount == 2 && irheading[0] < 2) {
-                            findWall(robot, 2, irdata);
-                        }
-                        
-                        if (robot.getAdjustRobot() < -2 && sensCount == 2 && irheading[0] > 86) {
-                            findWall(robot, 3, irdata);
-                        }
-                        // Create a measurements indicating no obstacle in the sensors line of sight
-                        ArrayList<MapLocation> lineOfSight = getLineBetweenPoints(robotLocation, measurementLocation);
-                        for (MapLocation location : lineOfSight) {
-                            map.addMeasurement(location, false);
-                        }
-                    }
+                ready.clear();
+            }
+            map.addMeasurements(merged);
+            lastBatchSize = merged.size();
+            merged.clear();
+            map.publishSnapshot();
+            int depth = 0;
+            for (MappingWorker worker : workers.values()) {
+                depth += worker.robot.getNumberOfMeasurements();
+            }
+            queueDepth = depth;
+            if (debug && lastBatchSize > 0) {
+                System.out.println("Cell updates added: " + lastBatchSize + " Queued: " + depth
+                        + " Batches: " + batches.size());
+            }
+            if (mapFile != null && System.currentTimeMillis() - lastMapFileFlush > MAP_FILE_INTERVAL) {
+                lastMapFileFlush = System.currentTimeMillis();
+                try {
+                    mapFile.flush(map.getSnapshot());
+                } catch (IOException e) {
+                    System.out.println("Error. Could not save the map: " + e.getMessage());
+                    mapFile = null;
                 }
             }
             /*
             if (debug) {
-                int frontierLocations = map.getFrontierLocations().size();
+                MapStatistics statistics = map.getStatistics();
+                int frontierLocations = statistics.getFrontierCells();
                 if (frontierLocations > maxFrontierLocations) {
                     maxFrontierLocations = frontierLocations;
                 }
                 System.out.println("Max frontier locations: " + maxFrontierLocations);
                 
-                int cellCount = 0;
-                for (int i = map.getBottomRow(); i <= map.getTopRow(); i++) {
-                    for (int j = map.getLeftColumn(); j <= map.getRightColumn(); j++) {
-                        MapLocation location = new MapLocation(i, j);
-                        Cell cell = map.findCell(location);
-                        if (cell.isOccupied()) {
-                            cellCount++;
-                        }
-                    }
-                }
+                int cellCount = statistics.getOccupiedCells();
                 if (cellCount > maxOccupied) {
                     maxOccupied = cellCount;
                 }
@@ -258,6 +298,154 @@ public class MappingController extends Thread {
         }
     }
 
+    /**
+     * Makes a new index of the positions of the robots for the workers
+     */
+    private void updateRobotPositions() {
+        ArrayList<Robot> robots = new ArrayList<Robot>();
+        for (MappingWorker worker : workers.values()) {
+            robots.add(worker.robot);
+        }
+        robotPositions = new RobotPositionIndex(robots.toArray(new Robot[robots.size()]), ROBOT_CLEARANCE);
+    }
+
+    /**
+     * Turns the measurements of one robot into batches of cell updates for
+     * the mapping thread. The worker updates the position of the robot,
+     * leaves out measurements that are too close to the other robots and
+     * finds the line of sight of each sensor. It sleeps until the robot adds
+     * a measurement, and then takes all the measurements that are queued, at
+     * most MAX_WORKER_BATCH_SIZE in each batch. If the mapping thread falls
+     * behind, the worker waits until there is room for the batch, and the
+     * measurements stay in the queue of the robot.
+     */
+    private class MappingWorker extends Thread {
+        private final String name;
+        private final Robot robot;
+        private final MeasurementHandler handler;
+        private final RayCaster lineOfSight;
+        private int rangeScan = 0;
+        private final int numberOfScans = 530;
+
+        MappingWorker(String name, Robot robot, MeasurementHandler handler) {
+            this.name = name;
+            this.robot = robot;
+            this.handler = handler;
+            lineOfSight = new RayCaster();
+            setName("Mapping " + name);
+        }
+
+        @Override
+        public void run() {
+            MeasurementBatch batch = new MeasurementBatch();
+            while (!isInterrupted()) {
+                if (paused || !MappingController.this.isAlive() || robot.getNumberOfMeasurements() == 0) {
+                    // Unparked by the robot when a measurement is added
+                    LockSupport.parkNanos(this, MAX_WAIT * 1000000L);
+                    continue;
+                }
+                int batchSize = 0;
+                while (batchSize < MAX_WORKER_BATCH_SIZE && handler.updateMeasurement()) {
+                    addMeasurement(batch);
+                    batchSize++;
+                }
+                if (batch.isEmpty()) {
+                    continue;
+                }
+                try {
+                    batches.put(batch);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                batch = freeBatches.poll();
+                if (batch == null) {
+                    batch = new MeasurementBatch();
+                }
+            }
+        }
+
+        /**
+         * Adds the latest measurement of the robot and the line of sight of
+         * each sensor to the batch
+         */
+        private void addMeasurement(MeasurementBatch batch) {
+            Position robotPosition = handler.getRobotPosition();
+            Angle robotAngle = handler.getRobotHeading();
+
+            int[] position = {(int) Math.round(robotPosition.getXValue()), (int) Math.round(robotPosition.getYValue())};
+            robot.setPosition(position);
+            robot.setRobotOrientation((int) Math.round(robotAngle.getValue()));
+
+            // Find the location of the robot in the map
+            map.resize(robotPosition);
+            MapLocation robotLocation = map.findLocationInMap(robotPosition);
+
+            Sensor[] sensors = handler.getIRSensorData();
+            RobotPositionIndex otherRobots = robotPositions;
+            Position ownPosition = new Position(position[0], position[1]);
+
+            int sensCount = 0;
+
+            for (Sensor sensor : sensors) {
+                sensCount++;
+
+                // Check the distance between the position of the measurement
+                // and the robot itself, and the other robots as they were at
+                // the last update of the index
+                boolean tooClose = Position.distanceBetween(ownPosition, sensor.getPosition()) < ROBOT_CLEARANCE
+                        || otherRobots.isNear(sensor.getPosition(), robot);
+
+                // The measurement is only added to the map if it is at a certain distance to the other robots
+                if (!tooClose) {
+                    int[] irheading = handler.getSensorAngel();
+                    int[] irdata = handler.getCurrentMeasurement().getIRdata();
+
+                    map.resize(sensor.getPosition());
+                    MapLocation measurementLocation = map.findLocationInMap(sensor.getPosition());
+                    Position target = new Position(measurementLocation.getColumn(), measurementLocation.getRow());
+                    if (sensor.isMeasurement()) {
+                        batch.add(measurementLocation, true);
+                    }
+                    // RangeScan near base for MapMatching on return sends once when the tower turns
+                    if (robot.isRangeScanBase() && !robot.isGoingHome()) {
+                        rangeScan++;
+                        robot.addToREF(target);
+                        if (rangeScan == numberOfScans) {
+                            endScan(robot);
+                            rangeScan = 0;
+                        }
+                    }
+                    // RangeScan near base for matching with ref.scan
+                    if (robot.isGoingHome() && robot.isRangeScanBase()) {
+                        rangeScan++;
+                        System.out.println(rangeScan);
+                        robot.addToNEW(target);
+                        System.out.println("Sensor: " + sensCount + " sends: " + irdata[sensCount-1]);
+                        if (rangeScan == numberOfScans) {
+                            endScan(robot);
+                            rangeScan = 0;
+                            initDocking(robot);
+                        }
+                    }
+                    // Find distance to backwall
+                    if (robot.getAdjustRobot() < -2 && sensCount == 2 && irheading[0] < 2) {
+                        findWall(robot, 2, irdata);
+                    }
+
+                    if (robot.getAdjustRobot() < -2 && sensCount == 2 && irheading[0] > 86) {
+                        findWall(robot, 3, irdata);
+                    }
+                    // Create a measurements indicating no obstacle in the sensors line of sight
+                    lineOfSight.cast(robotLocation.getRow(), robotLocation.getColumn(),
+                            measurementLocation.getRow(), measurementLocation.getColumn());
+                    for (int k = 0; k < lineOfSight.size(); k++) {
+                        batch.add(lineOfSight.getRow(k), lineOfSight.getColumn(k), false);
+                    }
+                }
+            }
+        }
+    }
+
     private void findWall(Robot robot, int irSensor, int[] irdata) {
         if (irdata[irSensor] != 0) {
             robot.setBackUpDist((int) (irdata[irSensor] /** 0.80*/));
@@ -271,25 +459,19 @@ public class MappingController extends Thread {
     
     /**
      * Returns all map locations in a straight line between two MapLocations.
-     * Uses Bresenham's line algorithm
+     * Uses Bresenham's line algorithm, see RayCaster. Use a RayCaster directly
+     * where lines are drawn often, as it does not create any objects.
      *
      * @param loc1
      * @param loc2
      * @return
      */
     public static ArrayList<MapLocation> getLineBetweenPoints(MapLocation loc1, MapLocation loc2) {
-        int dx = loc2.getColumn() - loc1.getColumn();
-        int dy = loc2.getRow() - loc1.getRow();
-        double angle = Math.toDegrees(Math.atan2(dy, dx));
-        if (angle < 0) {
-            angle += 360;
-        }
-        int oct = MapLocation.getOctant(angle);
-        MapLocation locOct = MapLocation.switchToOctantZeroFrom(oct, new MapLocation(dy, dx));
-        ArrayList<MapLocation> lineOct = MappingController.bresenham(new MapLocation(0, 0), locOct);
-        ArrayList<MapLocation> line = new ArrayList<MapLocation>();
-        for (MapLocation loc : lineOct) {
-            line.add(MapLocation.sum(loc1, MapLocation.switchFromOctantZeroTo(oct, loc)));
+        RayCaster ray = new RayCaster();
+        ray.cast(loc1.getRow(), loc1.getColumn(), loc2.getRow(), loc2.getColumn());
+        ArrayList<MapLocation> line = new ArrayList<MapLocation>(ray.size());
+        for (int i = 0; i < ray.size(); i++) {
+            line.add(new MapLocation(ray.getRow(i), ray.getColumn(i)));
         }
         return line;
     }
@@ -313,41 +495,6 @@ public class MappingController extends Thread {
         robot.resetNew();
     }
 
-    /**
-     * Bresenham's line algorithm. Found on
-     * https://en.wikipedia.org/wiki/Bresenham%27s_line_algorithm
-     *
-     * @param start
-     * @param end
-     * @return
-     */
-    static public ArrayList<MapLocation> bresenham(MapLocation start, MapLocation end) {
-        ArrayList<MapLocation> ray = new ArrayList<MapLocation>();
-        int startX = start.getColumn();
-        int startY = start.getRow();
-        int endX = end.getColumn();
-        int endY = end.getRow();
-        ray.add(new MapLocation(startY, startX));
-
-        int dx = endX - startX;
-        int dy = endY - startY;
-        int D = 2 * dy - dx;
-        int y = startY;
-        if (D > 0) {
-            y = y + 1;
-            D = D - (2 * dx);
-        }
-        for (int x = startX + 1; x < endX; x++) {
-            ray.add(new MapLocation(y, x));
-            D = D + (2 * dy);
-            if (D > 0) {
-                y = y + 1;
-                D = D - (2 * dx);
-            }
-        }
-        return ray;
-    }
-
     /*
     * Returning rotation
      */
@@ -539,33 +686,4 @@ public class MappingController extends Thread {
         }
         return m1;
     }
-
-    /**
-     * Worker thread used for filling in unexplored gaps in the map.
-     *
-     */
-    private class MapCleaningWorker implements Runnable {
-
-        public MapCleaningWorker() {
-
-        }
-
-        @Override
-        public void run() {
-            int cleanUpCountDown = 0;
-            while (true) {
-                try {
-                    Thread.sleep(10);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                    break;
-                }
-                cleanUpCountDown++;
-                if (cleanUpCountDown == 100) {
-                    cleanUpCountDown = 0;
-                    map.cleanUp();
-                }
-            }
-        }
-    }
 }
@@ -0,0 +1,136 @@
+/*
+ * This code is written as a part of a Master Thesis
+ * the spring of 2016.
+ *
+ * Eirik Thon(Master 2016 @ NTNU)
+ */
+package no.ntnu.et.mapping;
+
+import no.ntnu.et.general.Position;
+import no.ntnu.et.map.PackedLocation;
+import no.ntnu.tem.robot.Robot;
+
+/**
+ * The positions of the robots at one point in time, sorted into a uniform
+ * grid with cells as large as the search radius. A robot closer than the
+ * radius to a position is always in the cell of the position or one of the
+ * eight cells around it, so isNear looks at nine cells no matter how many
+ * robots there are. The index is never changed after it is created, so it
+ * can be shared between threads. Create a new index when the robots move.
+ *
+ * @author Eirik Thon
+ */
+class RobotPositionIndex {
+    private final int radius;
+    // The robots sorted by their grid cell, and the cells as packed locations
+    private final Robot[] robots;
+    private final double[] xValues;
+    private final double[] yValues;
+    private final long[] cells;
+    // Hash table from a grid cell to the index of its first robot plus one
+    private final int[] table;
+
+    /**
+     * Creates an index of the current positions of the robots
+     * @param robots
+     * @param radius the search radius in cm
+     */
+    RobotPositionIndex(Robot[] robots, int radius) {
+        this.radius = radius;
+        int n = robots.length;
+        long[] robotCells = new long[n];
+        int[][] positions = new int[n][];
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            positions[i] = robots[i].getPosition();
+            robotCells[i] = findCell(positions[i][0], positions[i][1]);
+            order[i] = i;
+        }
+        // Sort the robots by cell so the robots in a cell are next to each
+        // other. There are only a few robots, so insertion sort will do.
+        for (int i = 1; i < n; i++) {
+            int robot = order[i];
+            int j = i - 1;
+            while (j >= 0 && robotCells[order[j]] > robotCells[robot]) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = robot;
+        }
+        this.robots = new Robot[n];
+        xValues = new double[n];
+        yValues = new double[n];
+        cells = new long[n];
+        for (int i = 0; i < n; i++) {
+            int robot = order[i];
+            this.robots[i] = robots[robot];
+            xValues[i] = positions[robot][0];
+            yValues[i] = positions[robot][1];
+            cells[i] = robotCells[robot];
+        }
+        table = new int[Integer.highestOneBit(Math.max(n, 1) * 4) * 2];
+        for (int i = 0; i < n; i++) {
+            if (i > 0 && cells[i] == cells[i - 1]) {
+                continue;
+            }
+            int slot = hash(cells[i]);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & (table.length - 1);
+            }
+            table[slot] = i + 1;
+        }
+    }
+
+    /**
+     * Returns true if a robot other than the excluded one is closer than the
+     * radius to the position
+     * @param position
+     * @param excluded a robot to leave out, or null
+     * @return
+     */
+    boolean isNear(Position position, Robot excluded) {
+        long center = findCell(position.getXValue(), position.getYValue());
+        int row = PackedLocation.getRow(center);
+        int column = PackedLocation.getColumn(center);
+        for (int i = row - 1; i <= row + 1; i++) {
+            for (int j = column - 1; j <= column + 1; j++) {
+                long cell = PackedLocation.pack(i, j);
+                for (int k = findFirst(cell); k >= 0 && k < robots.length && cells[k] == cell; k++) {
+                    if (robots[k] == excluded) {
+                        continue;
+                    }
+                    double distance = Math.sqrt(Math.pow(xValues[k] - position.getXValue(), 2)
+                            + Math.pow(yValues[k] - position.getYValue(), 2));
+                    if (distance < radius) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the index of the first robot in the cell, or -1 if there are no
+     * robots in the cell
+     */
+    private int findFirst(long cell) {
+        int slot = hash(cell);
+        while (table[slot] != 0) {
+            if (cells[table[slot] - 1] == cell) {
+                return table[slot] - 1;
+            }
+            slot = (slot + 1) & (table.length - 1);
+        }
+        return -1;
+    }
+
+    private long findCell(double x, double y) {
+        return PackedLocation.pack((int) Math.floor(y / radius), (int) Math.floor(x / radius));
+    }
+
+    private int hash(long cell) {
+        long h = cell * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 40) & (table.length - 1);
+    }
+}
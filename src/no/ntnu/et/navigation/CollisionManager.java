@@ -12,10 +12,11 @@ import java.util.concurrent.ConcurrentHashMap;
 import no.ntnu.et.general.Angle;
 import no.ntnu.et.general.Line;
 import no.ntnu.et.general.Position;
+import no.ntnu.et.map.Cell;
 import no.ntnu.et.map.GridMap;
 import no.ntnu.et.map.MapLocation;
+import no.ntnu.et.map.RayCaster;
 import no.ntnu.et.general.Utilities;
-import no.ntnu.et.mapping.MappingController;
 import no.ntnu.tem.application.Application;
 import no.ntnu.tem.application.RobotController;
 
@@ -393,7 +394,7 @@ public class CollisionManager extends Thread {
 
         // Send the robot to the nearest unrestricted (and weakly unrestricted) location in the map
         MapLocation robotLocation = map.findLocationInMap(currentPosition);
-        MapLocation unrestrictedMapLocation = PathPlanningFunctions.findNearestFreeCell(map, robotLocation);
+        MapLocation unrestrictedMapLocation = PathPlanningFunctions.findNearestFreeCell(map.getSnapshot(), robotLocation);
         Position unrestrictedPosition = map.mapLocation2Position(unrestrictedMapLocation);
         int[] command = NavigationController.findCommandToTargetPoint(unrestrictedPosition, currentPosition, (int)Math.round(currentOrientation.getValue()));
         return command;
@@ -407,13 +408,13 @@ public class CollisionManager extends Thread {
         Position offset = Utilities.polar2cart(testAngle, 40);
         Position testPosition = Position.sum(robot1Position, offset);
         MapLocation testMapLocation = map.findLocationInMap(testPosition);
-        ArrayList<MapLocation> line = MappingController.getLineBetweenPoints(robot1Location, testMapLocation);
+        RayCaster line = new RayCaster();
+        line.cast(robot1Location.getRow(), robot1Location.getColumn(), testMapLocation.getRow(), testMapLocation.getColumn());
         boolean success = true;
-        for(MapLocation location: line){
-            if(map.findCell(location) != null){
-                if(map.findCell(location).isRestricted()) {
-                    success = false;
-                }
+        for(int i = 0; i < line.size(); i++){
+            Cell cell = map.findCell(line.getRow(i), line.getColumn(i));
+            if(cell != null && cell.isRestricted()) {
+                success = false;
             }
         }
         if(success){
@@ -425,11 +426,12 @@ public class CollisionManager extends Thread {
         offset = Utilities.polar2cart(testAngle, 40);
         testPosition = Position.sum(robot1Position, offset);
         testMapLocation = map.findLocationInMap(testPosition);
-        for(MapLocation location: line){
-            if(map.findCell(location) != null){
-                if(map.findCell(location).isRestricted()) {
-                    success = false;
-                }
+        line.cast(robot1Location.getRow(), robot1Location.getColumn(), testMapLocation.getRow(), testMapLocation.getColumn());
+        success = true;
+        for(int i = 0; i < line.size(); i++){
+            Cell cell = map.findCell(line.getRow(i), line.getColumn(i));
+            if(cell != null && cell.isRestricted()) {
+                success = false;
             }
         }
         if(success){
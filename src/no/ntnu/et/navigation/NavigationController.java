@@ -19,6 +19,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import no.ntnu.et.general.Position;
 import no.ntnu.et.map.GridMap;
+import no.ntnu.et.map.MapOverlay;
 import no.ntnu.tem.application.Application;
 import no.ntnu.tem.application.RobotController;
 import no.ntnu.tem.robot.Robot;
@@ -36,6 +37,8 @@ public class NavigationController extends Thread {
 
     private RobotTaskManager robotTaskManager;
 
+    private MapOverlay overlay;
+
     private RobotController robotController;
 
     private Application application;
@@ -48,10 +51,11 @@ public class NavigationController extends Thread {
 
     private boolean debug = false;
 
-    public NavigationController(RobotController robotController, Application application, GridMap map) {
+    public NavigationController(RobotController robotController, Application application, GridMap map, MapOverlay overlay) {
         this.robotController = robotController;
         this.application = application;
-        robotTaskManager = new RobotTaskManager(map);
+        this.overlay = overlay;
+        robotTaskManager = new RobotTaskManager(map, overlay);
         collisionManager = new CollisionManager(map, robotController);
         collisionManager.setName("Collision management");
         robotNames = new ArrayList<String>();
@@ -69,6 +73,7 @@ public class NavigationController extends Thread {
     public void removeRobot(String robotName) {
         robotNames.remove(robotName);
         collisionManager.removeRobot(robotName);
+        overlay.clear(robotName);
     }
 
     @Override
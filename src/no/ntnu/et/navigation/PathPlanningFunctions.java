@@ -6,11 +6,16 @@
  */
 package no.ntnu.et.navigation;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import no.ntnu.et.general.Position;
 import no.ntnu.et.map.GridMap;
+import no.ntnu.et.map.LongHashSet;
 import no.ntnu.et.map.MapLocation;
-import no.ntnu.et.mapping.MappingController;
+import no.ntnu.et.map.MapSnapshot;
+import no.ntnu.et.map.NeighborCursor;
+import no.ntnu.et.map.PackedLocation;
+import no.ntnu.et.map.RayCaster;
 
 /**
  * This class contains static functions used for path planning.
@@ -20,14 +25,20 @@ import no.ntnu.et.mapping.MappingController;
 
 public class PathPlanningFunctions {
     
-    static ArrayList<MapLocation> findPath(GridMap map, MapLocation startLocation , MapLocation targetLocation){
+    static ArrayList<MapLocation> findPath(MapSnapshot map, MapLocation startLocation , MapLocation targetLocation){
         MapNode currentNode = new MapNode(MapLocation.copy(startLocation), 0, MapLocation.distance(startLocation, targetLocation)*map.getCellSize(), null);
-        SortedMapNodeList closedSet = new SortedMapNodeList();
+        // The open and closed locations are also kept as packed locations, so
+        // that membership can be tested without searching the lists
+        LongHashSet closedLocations = new LongHashSet();
+        LongHashSet openLocations = new LongHashSet();
         SortedMapNodeList openSet = new SortedMapNodeList();
+        NeighborCursor neighbors = new NeighborCursor(map);
         openSet.add(currentNode);
+        openLocations.add(currentNode.getLocation().pack());
         while(openSet.size() > 0){
             currentNode = openSet.remove(0);
-            closedSet.add(currentNode);
+            openLocations.remove(currentNode.getLocation().pack());
+            closedLocations.add(currentNode.getLocation().pack());
             
             // Test if finished
             if(MapLocation.equals(currentNode.getLocation(), targetLocation)){
@@ -36,51 +47,59 @@ public class PathPlanningFunctions {
             }
             
             // Create successors
-            ArrayList<MapNode> successors = generateSuccessors(map, currentNode, targetLocation);
-            
-            for(MapNode successor: successors){
-                MapNode existingSuccessor = closedSet.containsLocation(successor.getLocation());
-                if(existingSuccessor != null){
+            int row = currentNode.getLocation().getRow();
+            int column = currentNode.getLocation().getColumn();
+            double gCost = currentNode.getTraversedCost();
+            neighbors.reset(row, column, NeighborCursor.ALL_NEIGHBORS);
+            while(neighbors.next()){
+                if(!map.isWeaklyTargetable(neighbors.getRow(), neighbors.getColumn())){
+                    continue;
+                }
+                double stepCost = neighbors.isDiagonal() ? 1.415 : 1;
+                stepCost *= clearanceCost(map.getObstacleDistance(neighbors.getRow(), neighbors.getColumn()), map.getCellSize());
+                long packedNeighbor = PackedLocation.pack(neighbors.getRow(), neighbors.getColumn());
+                if(closedLocations.contains(packedNeighbor)){
                     continue;
                 }
-                existingSuccessor = openSet.containsLocation(successor.getLocation());
-                if(existingSuccessor == null){
+                MapLocation neighbor = MapLocation.unpack(packedNeighbor);
+                MapNode successor = new MapNode(neighbor, gCost+stepCost, MapLocation.distance(neighbor, targetLocation)*map.getCellSize(), currentNode);
+                if(!openLocations.contains(packedNeighbor)){
                     openSet.sortedAdd(successor);
+                    openLocations.add(packedNeighbor);
+                    continue;
                 }
-                else if (existingSuccessor.getTraversedCost() > successor.getTraversedCost()){
+                MapNode existingSuccessor = openSet.containsLocation(neighbor);
+                if (existingSuccessor.getTraversedCost() > successor.getTraversedCost()){
                     existingSuccessor.setPrevious(currentNode);
                     existingSuccessor.setTraversedCost(successor.getTraversedCost());
                 }
-                
             }
         }
         return null;
     }
     
-    static private ArrayList<MapNode> generateSuccessors(GridMap map, MapNode parentNode, MapLocation target){
-        ArrayList<MapNode> successors = new ArrayList<MapNode>();
-        double gCost = parentNode.getTraversedCost();
-        ArrayList<MapLocation> diagonalNeighbors = map.findDiagonalNeighborCells(parentNode.getLocation());
-        for(MapLocation neighbor: diagonalNeighbors){
-            if(map.findCell(neighbor).isWeaklyTargetable()){
-                if(map.findCell(neighbor).isWeaklyRestricted()){
-                    successors.add(new MapNode(neighbor, gCost+1.415*10, MapLocation.distance(neighbor, target)*map.getCellSize(), parentNode));
-                }else{
-                    successors.add(new MapNode(neighbor, gCost+1.415, MapLocation.distance(neighbor, target)*map.getCellSize(), parentNode));
-                }
-            }
+    /**
+     * Returns the factor the cost of moving into a cell is multiplied with,
+     * given the distance from the cell to the nearest obstacle. The factor
+     * falls linearly from 10 at the edge of the restricted area to 1 at the
+     * edge of the weakly restricted area, so that paths keep away from walls
+     * when they can. The areas are measured in whole cells, the same way as
+     * the map restricts cells.
+     * @param obstacleDistance in cm
+     * @param cellSize
+     * @return 
+     */
+    static private double clearanceCost(double obstacleDistance, int cellSize){
+        double distance = obstacleDistance/cellSize;
+        int restricted = GridMap.getRestrictedCells(cellSize);
+        int weaklyRestricted = GridMap.getWeaklyRestrictedCells(cellSize);
+        if(distance >= weaklyRestricted){
+            return 1;
         }
-        ArrayList<MapLocation> directNeighbors = map.findDirectNeighborCells(parentNode.getLocation());
-        for(MapLocation neighbor: directNeighbors){
-            if(map.findCell(neighbor).isWeaklyTargetable()){
-                if(map.findCell(neighbor).isWeaklyRestricted()){
-                    successors.add(new MapNode(neighbor, gCost+10, MapLocation.distance(neighbor, target)*map.getCellSize(), parentNode));
-                }else{
-                    successors.add(new MapNode(neighbor, gCost+1, MapLocation.distance(neighbor, target)*map.getCellSize(), parentNode));
-                }
-            }
+        if(distance <= restricted){
+            return 10;
         }
-        return successors;
+        return 1 + 9*(weaklyRestricted - distance)/(weaklyRestricted - restricted);
     }
     
     static private ArrayList<MapLocation> constructPath(MapNode lastNode){
@@ -89,59 +108,40 @@ public class PathPlanningFunctions {
         path.add(lastNode.getLocation());
         while (current != null){
             path.add(current.getLocation());
-            //map.findCell(current.getLocation()).setPath();
             current = current.getPrevious();
         }
         return path;
     }
     
-    static MapLocation findNearestFreeCell(GridMap map, MapLocation startLocation){
-        ArrayList<MapLocation> closedSet = new ArrayList<MapLocation>();
-        ArrayList<MapLocation> openSet = new ArrayList<MapLocation>();
+    static MapLocation findNearestFreeCell(MapSnapshot map, MapLocation startLocation){
+        // Locations that are either in the open set or have been visited
+        LongHashSet seenLocations = new LongHashSet();
+        ArrayDeque<MapLocation> openSet = new ArrayDeque<MapLocation>();
+        NeighborCursor neighbors = new NeighborCursor(map);
         openSet.add(startLocation);
+        seenLocations.add(startLocation.pack());
         MapLocation currentLocation;
         while(openSet.size() > 0){
-            currentLocation = openSet.remove(0);
-            closedSet.add(currentLocation);
+            currentLocation = openSet.poll();
             
             // Test if finished
-            if(map.findCell(currentLocation).isFreelyTargetable()){
+            if(map.isFreelyTargetable(currentLocation.getRow(), currentLocation.getColumn())){
                 return currentLocation;
             }
             // Create successors
-            ArrayList<MapLocation> successors = generateSuccessorsBFS(map, currentLocation);
-            
-            for(MapLocation successor: successors){
-                if(closedSet.contains(successor)){
+            neighbors.reset(currentLocation.getRow(), currentLocation.getColumn(), NeighborCursor.ALL_NEIGHBORS);
+            while(neighbors.next()){
+                if(map.isOccupied(neighbors.getRow(), neighbors.getColumn())){
                     continue;
                 }
-                if(!openSet.contains(successor)){
-                    openSet.add(successor);
+                if(seenLocations.add(PackedLocation.pack(neighbors.getRow(), neighbors.getColumn()))){
+                    openSet.add(new MapLocation(neighbors.getRow(), neighbors.getColumn()));
                 }
             }
         }
         return null;
     }
     
-    static private ArrayList<MapLocation> generateSuccessorsBFS(GridMap map, MapLocation parentLocation){
-        ArrayList<MapLocation> successors = new ArrayList<MapLocation>();
-        ArrayList<MapLocation> diagonalNeighbors = map.findDiagonalNeighborCells(parentLocation);
-        for(MapLocation neighbor: diagonalNeighbors){
-            if(map.findCell(neighbor).isOccupied()){
-                continue;
-            }
-            successors.add(neighbor);
-        }
-        ArrayList<MapLocation> directNeighbors = map.findDirectNeighborCells(parentLocation);
-        for(MapLocation neighbor: directNeighbors){
-            if(map.findCell(neighbor).isOccupied()){
-                continue;
-            }
-            successors.add(neighbor);
-        }
-        return successors;
-    }
-    
     static ArrayList<Position> generateWaypoints(GridMap map, ArrayList<MapLocation> path) {
         ArrayList<Position> waypoints = new ArrayList<Position>();
         MapLocation currentWaypoint = path.get(0);
@@ -152,16 +152,12 @@ public class PathPlanningFunctions {
         double fit = 0;
         int currentIndex = 0;
         int counter = currentIndex+1;
+        RayCaster straightLine = new RayCaster();
         while(!MapLocation.equals(next, finalLocation)){
-            ArrayList<MapLocation> straightLine = new ArrayList<MapLocation> ();
             while(counter < path.size()){
                 next = path.get(counter);
-                straightLine = MappingController.getLineBetweenPoints(currentWaypoint, next);
-                ArrayList<MapLocation> pathPart = new ArrayList();
-                for(int i = currentIndex; i < counter+1; i++){
-                    pathPart.add(path.get(i));
-                }
-                fit = coumputeFit(straightLine, pathPart, map.getCellSize());
+                straightLine.cast(currentWaypoint.getRow(), currentWaypoint.getColumn(), next.getRow(), next.getColumn());
+                fit = coumputeFit(straightLine, path, currentIndex, map.getCellSize());
                 if (fit > threshold){
                     break;
                 }
@@ -182,12 +178,18 @@ public class PathPlanningFunctions {
         return waypoints;
     }
     
-    static private double coumputeFit(ArrayList<MapLocation> list1, ArrayList<MapLocation> list2, int cellSize){
+    /**
+     * Returns the sum of the distances between the cells on the line and the
+     * cells on the path, starting from the specified index of the path
+     */
+    static private double coumputeFit(RayCaster line, ArrayList<MapLocation> path, int start, int cellSize){
         double fit = 0;
-        int end = list1.size();
+        int end = line.size();
         int index = 0;
         while (index < end){
-            fit += MapLocation.distance(list1.get(index), list2.get(index))*cellSize;
+            MapLocation location = path.get(start + index);
+            fit += Math.sqrt(Math.pow(line.getRow(index) - location.getRow(), 2)
+                    + Math.pow(line.getColumn(index) - location.getColumn(), 2))*cellSize;
             index++;
         }
         return fit;
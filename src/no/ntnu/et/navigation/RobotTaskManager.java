@@ -12,7 +12,9 @@ import java.util.concurrent.ConcurrentHashMap;
 import no.ntnu.et.general.Position;
 import no.ntnu.et.map.GridMap;
 import no.ntnu.et.map.MapLocation;
-import no.ntnu.et.mapping.MappingController;
+import no.ntnu.et.map.MapOverlay;
+import no.ntnu.et.map.MapSnapshot;
+import no.ntnu.et.map.RayCaster;
 import no.ntnu.tem.robot.Robot;
 import no.ntnu.et.navigation.NavigationRobot;
 
@@ -27,6 +29,8 @@ public class RobotTaskManager {
 
     private GridMap map;
 
+    private MapOverlay overlay;
+
     private NavigationRobot navRobots;
 
     private ConcurrentHashMap<String, MapLocation> temporaryTargets;
@@ -43,8 +47,15 @@ public class RobotTaskManager {
 
     final private int targetSpacing = 5; //[cm]
 
-    public RobotTaskManager(GridMap map) {
+    /**
+     * Constructor
+     *
+     * @param map
+     * @param overlay the target and path of each robot are shown here
+     */
+    public RobotTaskManager(GridMap map, MapOverlay overlay) {
         this.map = map;
+        this.overlay = overlay;
         temporaryTargets = new ConcurrentHashMap<String, MapLocation>();
         currentTargets = new ConcurrentHashMap<String, MapLocation>();
         tasksInProgress = new HashMap<String, RobotTaskWorker>();
@@ -87,17 +98,21 @@ public class RobotTaskManager {
 
         @Override
         public void run() {
-            ArrayList<MapLocation> frontierLocations = map.getFrontierLocations();
+            // The targets are selected from the latest snapshot of the map, so
+            // that the map can be updated while the search is running
+            MapSnapshot snapshot = map.getSnapshot();
+            ArrayList<MapLocation> frontierLocations = snapshot.getFrontierLocations();
             ArrayList<MapLocation> possibleTargets = selectSpreadLocations(frontierLocations);
             int currentOrientation = robot.getRobotOrientation();
             boolean assigned = false;
             // Assign the robot to move to one of the frontier locations if it has nothing else to do.
             while (!assigned && !robot.isGoingHome()) {
+                snapshot = map.getSnapshot();
                 Position robotPosition = new Position(robot.getPosition());
                 MapLocation robotLocation = map.findLocationInMap(robotPosition);
 
                 // Find the most optimal targetpoint in the map given the robots current location and the target points of the other robots
-                MapLocation bestTarget = findBestTarget(currentOrientation, robotLocation, possibleTargets, name);
+                MapLocation bestTarget = findBestTarget(snapshot, currentOrientation, robotLocation, possibleTargets, name);
 
                 
                // Done mapping
@@ -115,14 +130,14 @@ public class RobotTaskManager {
 
                 robotPosition = new Position(robot.getPosition());
                 robotLocation = map.findLocationInMap(robotPosition);
-                if (map.findCell(robotLocation).isRestricted()) {
+                if (snapshot.isRestricted(robotLocation.getRow(), robotLocation.getColumn())) {
                     if (debug) {
                         System.out.println(name + ": Robot in restricted position");
                     }
                     break;
                 }
                 // Search for a path between the robot and the best target point
-                ArrayList<MapLocation> path = PathPlanningFunctions.findPath(map, bestTarget, robotLocation);
+                ArrayList<MapLocation> path = PathPlanningFunctions.findPath(snapshot, bestTarget, robotLocation);
                 // If no path to bestTarget is found remove bestTarget from possibleTargets
                 if (path == null) {
                     for (int i = 0; i < possibleTargets.size(); i++) {
@@ -143,7 +158,7 @@ public class RobotTaskManager {
                     }
                 } // If a path is found find waypoints along the way and set destination for the robot
                 else {
-                    //computeUtility(bestTarget, robotLocation, currentOrientation, name, true);
+                    //computeUtility(snapshot, bestTarget, robotLocation, currentOrientation, name, true);
                     if (debug) {
                         System.out.println(name + ": Path found");
                     }
@@ -157,6 +172,7 @@ public class RobotTaskManager {
                     }
                     currentTargets.put(name, bestTarget);
                     temporaryTargets.remove(name);
+                    overlay.setTarget(name, bestTarget, path);
                     navRobot.addWaypoints(newWaypoints);
                     Position destinationPos = newWaypoints.get(newWaypoints.size() - 1);
                     int[] destination = {(int) Math.round(destinationPos.getXValue()), (int) Math.round(destinationPos.getYValue())};
@@ -169,11 +185,12 @@ public class RobotTaskManager {
 
             // Runs the A* algorthim for return.....
             while (robot.isGoingHome() && !assigned && !robot.isAtBase()) {
+                snapshot = map.getSnapshot();
                 Position robotPosition = new Position(robot.getPosition());
                 MapLocation robotLocation = map.findLocationInMap(robotPosition);
 
                 // Find home location in the map.
-                MapLocation bestTarget = findBestTarget(currentOrientation, robotLocation, possibleTargets, name);
+                MapLocation bestTarget = findBestTarget(snapshot, currentOrientation, robotLocation, possibleTargets, name);
                 Position homePosition = new Position(robot.getBasePosition());
                 MapLocation homeLocation = map.findLocationInMap(homePosition);
 
@@ -181,7 +198,7 @@ public class RobotTaskManager {
                 robotLocation = map.findLocationInMap(robotPosition);
 
                 //Finding path home
-                ArrayList<MapLocation> path = PathPlanningFunctions.findPath(map, homeLocation, robotLocation);
+                ArrayList<MapLocation> path = PathPlanningFunctions.findPath(snapshot, homeLocation, robotLocation);
 
                 //Find waypoints along the path home
                 ArrayList<Position> newWaypoints = PathPlanningFunctions.generateWaypoints(map, path);
@@ -191,11 +208,13 @@ public class RobotTaskManager {
 
                     robot.setAtBase(true);
                     temporaryTargets.remove(name);
+                    overlay.clear(name);
                     assigned = false;
                     break;
                 }
                 currentTargets.put(name, homeLocation);
                 temporaryTargets.remove(name);
+                overlay.setTarget(name, homeLocation, path);
                 navRobot.addWaypoints(newWaypoints);
                 Position destinationPos = newWaypoints.get(newWaypoints.size() - 1);
                 int[] destination = {(int) Math.round(destinationPos.getXValue()), (int) Math.round(destinationPos.getYValue())};
@@ -233,12 +252,12 @@ public class RobotTaskManager {
         return spreadLocations;
     }
 
-    MapLocation findBestTarget(int currentOrientation, MapLocation currentLocation, ArrayList<MapLocation> possibleTargetLocations, String robotName) {
+    MapLocation findBestTarget(MapSnapshot snapshot, int currentOrientation, MapLocation currentLocation, ArrayList<MapLocation> possibleTargetLocations, String robotName) {
         MapLocation bestTargetPoint = null;
         double bestUtility = Double.NEGATIVE_INFINITY;
+        RayCaster ray = new RayCaster();
         for (MapLocation targetPoint : possibleTargetLocations) {
-            // map.findCell(targetPoint).setTarget();
-            double utility = computeUtility(targetPoint, currentLocation, currentOrientation, robotName, false);
+            double utility = computeUtility(snapshot, ray, targetPoint, currentLocation, currentOrientation, robotName, false);
             if (utility > bestUtility) {
                 bestUtility = utility;
                 bestTargetPoint = MapLocation.copy(targetPoint);
@@ -248,10 +267,10 @@ public class RobotTaskManager {
         return bestTargetPoint;
     }
 
-    private double computeUtility(MapLocation target, MapLocation currentLocation, int currentOrientation, String robotName, boolean print) {
+    private double computeUtility(MapSnapshot snapshot, RayCaster ray, MapLocation target, MapLocation currentLocation, int currentOrientation, String robotName, boolean print) {
         int mapCellSize = map.getCellSize();
 
-        double exploration = map.countUnknownCellsAroundLocation(target, 30) * mapCellSize * mapCellSize;
+        double exploration = snapshot.countUnknownCellsAroundLocation(target, 30) * mapCellSize * mapCellSize;
 
         double turnDistance = MapLocation.angleBetween(currentLocation, target) - currentOrientation;
         turnDistance = Math.abs((turnDistance + 180) % 360 - 180);
@@ -285,16 +304,16 @@ public class RobotTaskManager {
         distribution = distribution / (currentTargets.size() + temporaryTargets.size() + 1);
 
         double lineOfSight = 1;
-        ArrayList<MapLocation> shortestPath = MappingController.getLineBetweenPoints(currentLocation, target);
-        for (MapLocation location : shortestPath) {
-            if (!map.findCell(location).isWeaklyTargetable()) {
+        ray.cast(currentLocation.getRow(), currentLocation.getColumn(), target.getRow(), target.getColumn());
+        for (int i = 0; i < ray.size(); i++) {
+            if (!snapshot.isWeaklyTargetable(ray.getRow(i), ray.getColumn(i))) {
                 lineOfSight = 0;
                 break;
             }
         }
 
         double closeToWall = 0;
-        if (map.findCell(target).isWeaklyRestricted()) {
+        if (snapshot.isWeaklyRestricted(target.getRow(), target.getColumn())) {
             closeToWall = 1;
         }
 
@@ -14,6 +14,7 @@ import java.awt.Desktop;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.LinkedList;
 import java.util.logging.Level;
@@ -21,6 +22,8 @@ import java.util.logging.Logger;
 import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 import no.ntnu.et.map.GridMap;
+import no.ntnu.et.map.MapFile;
+import no.ntnu.et.map.MapOverlay;
 import no.ntnu.et.navigation.NavigationController;
 import no.ntnu.tem.communication.Communication;
 import no.ntnu.tem.gui.MainGUI;
@@ -46,6 +49,8 @@ public final class Application {
     private final MappingController slam;
     private final MapGraphic worldMapGraphic;
     private final GridMap worldMap;
+    private final MapFile mapFile;
+    private final MapOverlay overlay;
     private boolean simulatorActive = false;
     private boolean pause = false;
 
@@ -53,20 +58,79 @@ public final class Application {
      * Constructor of the class Application
      */
     public Application() {
+        this(null);
+    }
+
+    /**
+     * Constructor of the class Application. The map is saved to the specified
+     * file while the system runs. If the file already holds a map, the
+     * mapping continues from that map.
+     *
+     * @param mapFilePath path of the map file, or null if the map should not
+     * be saved
+     */
+    public Application(String mapFilePath) {
         Installer.generateSystemDependantLibraries();
         MainGUI.setLookAndFeel();
         this.MAPLOCATION = new File("maps\\big_map.txt").getAbsolutePath();
         this.rc = new RobotController();
         this.com = new Communication(this, rc);
-        this.worldMap = new GridMap(2, 50, 50);
-        this.worldMapGraphic = new MapGraphic(worldMap, rc);
+        this.mapFile = openMapFile(mapFilePath);
+        this.worldMap = createWorldMap(mapFile);
+        this.overlay = new MapOverlay();
+        this.worldMapGraphic = new MapGraphic(worldMap, overlay, rc);
         this.slam = new MappingController(rc, worldMap);
-        this.navigation = new NavigationController(rc, this, worldMap);
+        if (mapFile != null) {
+            slam.setMapFile(mapFile);
+        }
+        this.navigation = new NavigationController(rc, this, worldMap, overlay);
         this.gui = new MainGUI(this);
         if (System.getProperty("os.name").startsWith("Windows")) {
             getPDFList();
         }
     }
+
+    /**
+     * Opens the map file, or creates it if it does not exist
+     *
+     * @param path
+     * @return the map file, or null if path is null or the file can not be
+     * used
+     */
+    private static MapFile openMapFile(String path) {
+        if (path == null) {
+            return null;
+        }
+        Path file = Paths.get(path);
+        try {
+            if (Files.exists(file)) {
+                return MapFile.open(file);
+            }
+            return MapFile.create(file);
+        } catch (IOException ex) {
+            System.out.println("Error. Could not open the map file: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Creates the world map from the map in the map file, or an empty map if
+     * there is no saved map
+     *
+     * @param mapFile
+     * @return
+     */
+    private static GridMap createWorldMap(MapFile mapFile) {
+        if (mapFile != null && !mapFile.isEmpty()) {
+            try {
+                return new GridMap(mapFile.readSnapshot(), GridMap.TILED_STORAGE, GridMap.BINARY_OCCUPANCY);
+            } catch (IOException ex) {
+                System.out.println("Error. Could not read the map file: " + ex.getMessage());
+            }
+        }
+        return new GridMap(2, 50, 50, GridMap.TILED_STORAGE);
+    }
+
     public void connectToRobot(Robot r) {
         if (!simulatorActive) {
             com.confirmHandshake(r.getAddress());
@@ -318,10 +382,11 @@ public final class Application {
     /////////////////       MAIN       ///////////////////
     //////////////////////////////////////////////////////
     /**
-     * @param args the command line arguments
+     * @param args the command line arguments. The first argument is the path
+     * of the map file, see Application(String mapFilePath)
      */
     public static void main(String[] args) {
-        new Application();
+        new Application(args.length > 0 ? args[0] : null);
     }
 
     /**
@@ -338,6 +403,13 @@ public final class Application {
      * that the dongle is reset and disconnected before next use
      */
     public void turnOffProgram() {
+        if (mapFile != null) {
+            try {
+                mapFile.flush(worldMap.getSnapshot());
+            } catch (IOException ex) {
+                System.out.println("Error. Could not save the map: " + ex.getMessage());
+            }
+        }
         if (!simulatorActive) {
             try {
                 System.out.println("Closing port");
@@ -16,11 +16,12 @@ import java.awt.Shape;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Line2D;
 import java.util.ArrayList;
-import java.util.concurrent.ConcurrentHashMap;
 import javax.swing.JPanel;
-import no.ntnu.et.map.Cell;
 import no.ntnu.et.map.GridMap;
+import no.ntnu.et.map.MapLevel;
 import no.ntnu.et.map.MapLocation;
+import no.ntnu.et.map.MapOverlay;
+import no.ntnu.et.map.MapSnapshot;
 import no.ntnu.tem.application.RobotController;
 import no.ntnu.tem.robot.Robot;
 
@@ -31,7 +32,12 @@ import no.ntnu.tem.robot.Robot;
  */
 public class MapGraphic extends JPanel {
 
+    // The smallest size in pixels a cell is painted with. When zoomed out, a
+    // coarser level of the map is painted instead of smaller cells
+    private static final int MINIMUM_CELL_PIXELS = 4;
+
     private GridMap gridmap;
+    private MapOverlay overlay;
     private RobotController rc;
     private Dimension d;
     boolean debug = false;
@@ -47,10 +53,12 @@ public class MapGraphic extends JPanel {
      * Constructor for the class MapGraphic
      *
      * @param gridmap the gridmap to show in the GUI
+     * @param overlay the targets and paths to show on top of the map
      * @param rc the systems robotcontroller
      */
-    public MapGraphic(GridMap gridmap, RobotController rc) {
+    public MapGraphic(GridMap gridmap, MapOverlay overlay, RobotController rc) {
         this.gridmap = gridmap;
+        this.overlay = overlay;
         this.rc = rc;
         this.cellSize = gridmap.getCellSize();
         d = new Dimension(gridmap.getNumberOfColumns() * cellSize, gridmap.getNumberOfRows() * cellSize);
@@ -84,10 +92,13 @@ public class MapGraphic extends JPanel {
     @Override
     public void paintComponent(Graphics g) {
         super.paintComponent(g);
+        // The whole frame is painted from the same snapshot, so the map is
+        // never locked while painting
+        MapSnapshot snapshot = gridmap.getSnapshot();
         if (debug) {
-            System.out.println("columns: " + gridmap.getNumberOfColumns() + ", rows: " + gridmap.getNumberOfRows());
+            System.out.println("columns: " + snapshot.getNumberOfColumns() + ", rows: " + snapshot.getNumberOfRows());
         }
-        d = new Dimension(gridmap.getNumberOfColumns() * cellSize * scrollSize.intValue(), gridmap.getNumberOfRows() * cellSize * scrollSize.intValue());
+        d = new Dimension(snapshot.getNumberOfColumns() * cellSize * scrollSize.intValue(), snapshot.getNumberOfRows() * cellSize * scrollSize.intValue());
         setSize(d);
         Graphics2D g2D = (Graphics2D) g;
         // Save the initial transform
@@ -96,64 +107,100 @@ public class MapGraphic extends JPanel {
         g2D.translate(0, getHeight() - 1);
         g2D.scale(1, -1);
         temp = g2D.getTransform();
-        numberOfRows = gridmap.getNumberOfRows();
-        numberOfColumns = gridmap.getNumberOfColumns();
-        cellSize = gridmap.getCellSize();
-        paintMap(g2D);
-        paintRobots(g2D);
+        numberOfRows = snapshot.getNumberOfRows();
+        numberOfColumns = snapshot.getNumberOfColumns();
+        cellSize = snapshot.getCellSize();
+        paintMap(g2D, snapshot);
+        paintOverlay(g2D, snapshot);
+        paintRobots(g2D, snapshot);
         g2D.setTransform(initial);
 
     }
 
     /**
-     * Paints the map
+     * Paints the map. When zoomed out, a coarser level of the map is painted
+     * so that no cell is smaller than MINIMUM_CELL_PIXELS.
+     *
+     * @param g2D The Graphics2D object
+     * @param snapshot the snapshot of the map to paint
+     */
+    private void paintMap(Graphics2D g2D, MapSnapshot snapshot) {
+        int lowest = snapshot.getBottomRow();
+        int leftmost = snapshot.getLeftColumn();
+        int scale = scrollSize.intValue();
+        MapLevel level = snapshot.getLevelForCellSize((MINIMUM_CELL_PIXELS + scale - 1) / scale);
+        int size = level.getCellSize() * scale;
+        for (int row = level.getBottomRow(); row <= level.getTopRow(); row++) {
+            for (int column = level.getLeftColumn(); column <= level.getRightColumn(); column++) {
+                // A coarse cell with an occupied cell is painted as occupied
+                // even if it also has unobserved cells, so that walls remain
+                // visible
+                if (level.isOccupied(row, column)) {
+                    g2D.setPaint(Color.black);
+                } else if (!level.isPreviouslyObserved(row, column)) {
+                    g2D.setPaint(Color.gray);
+                } else if (level.isRestricted(row, column)) {
+                    g2D.setPaint(Color.lightGray);
+                } /*else if (level.isWeaklyRestricted(row, column)) {
+                    g2D.setPaint(Color.yellow);
+                } */ else {
+                    g2D.setPaint(Color.white);
+                }
+                int x = ((column << level.getLevel()) - leftmost) * cellSize * scale;
+                int y = ((row << level.getLevel()) - lowest) * cellSize * scale;
+                g2D.fillRect(x, y, size, size);
+            }
+        }
+    }
+
+    /**
+     * Paints the path and target of each robot
      *
      * @param g2D The Graphics2D object
+     * @param snapshot the snapshot of the map the markers are painted on
      */
-    private void paintMap(Graphics2D g2D) {
-        ConcurrentHashMap<MapLocation, Cell> map = gridmap.getMap();
-        int lowest = gridmap.getBottomRow();
-        int leftmost = gridmap.getLeftColumn();
-        for (ConcurrentHashMap.Entry<MapLocation, Cell> entry : map.entrySet()) {
-            Cell cell = entry.getValue();
-            if (!cell.isPreviouslyObserved()) {
-                g2D.setPaint(Color.gray);
-            } else if (cell.isOccupied()) {
-                g2D.setPaint(Color.black);
-            } else if (cell.isRestricted()) {
-                g2D.setPaint(Color.lightGray);
-            } /*else if (cell.isWeaklyRestricted()) {
-                g2D.setPaint(Color.yellow);
-            } */ else if (cell.isTarget()) {
-                g2D.setPaint(Color.blue);
-            } else if (cell.isPath()) {
-                g2D.setPaint(Color.green);
-            } else if (cell.isFree()) {
-                g2D.setPaint(Color.white);
-            } else {
-                g2D.setPaint(Color.yellow);
+    private void paintOverlay(Graphics2D g2D, MapSnapshot snapshot) {
+        int size = cellSize * scrollSize.intValue();
+        for (String robotName : overlay.getRobotNames()) {
+            // The target and path are read together, so they always belong
+            // to the same task even if the robot gets a new one meanwhile
+            MapOverlay.Markers markers = overlay.getMarkers(robotName);
+            if (markers == null) {
+                continue;
             }
-            g2D.fillRect((entry.getKey().getColumn() - leftmost) * cellSize * scrollSize.intValue(), (entry.getKey().getRow() - lowest) * cellSize * scrollSize.intValue(), cellSize * scrollSize.intValue(), cellSize * scrollSize.intValue());
+            g2D.setPaint(Color.green);
+            for (MapLocation location : markers.getPath()) {
+                paintCell(g2D, snapshot, location, size);
+            }
+            g2D.setPaint(Color.blue);
+            paintCell(g2D, snapshot, markers.getTarget(), size);
         }
     }
 
+    private void paintCell(Graphics2D g2D, MapSnapshot snapshot, MapLocation location, int size) {
+        int x = (location.getColumn() - snapshot.getLeftColumn()) * size;
+        int y = (location.getRow() - snapshot.getBottomRow()) * size;
+        g2D.fillRect(x, y, size, size);
+    }
+
     /**
      * Paints the robots
      *
      * @param g2D The Graphics2D object
+     * @param snapshot the snapshot of the map the robots are painted on
      */
-    private void paintRobots(Graphics2D g2D) {
+    private void paintRobots(Graphics2D g2D, MapSnapshot snapshot) {
         for (Robot robot : rc.getRobotList()) {
 
             Color robotColor = selectRobotColor(g2D, robot.getId());
             g2D.setPaint(robotColor);
-            g2D.fillOval((robot.getPosition()[0] - gridmap.getLeftColumn() * cellSize - 7) * scrollSize.intValue(), (robot.getPosition()[1] - gridmap.getBottomRow() * cellSize - 7) * scrollSize.intValue(), 15 * scrollSize.intValue(), 15 * scrollSize.intValue());
+            g2D.fillOval((robot.getPosition()[0] - snapshot.getLeftColumn() * cellSize - 7) * scrollSize.intValue(), (robot.getPosition()[1] - snapshot.getBottomRow() * cellSize - 7) * scrollSize.intValue(), 15 * scrollSize.intValue(), 15 * scrollSize.intValue());
             g2D.setStroke(new BasicStroke(3));
 
-            int posx = (robot.getPosition()[0] - gridmap.getLeftColumn() * cellSize) * scrollSize.intValue();
-            int posy = (robot.getPosition()[1] - gridmap.getBottomRow() * cellSize) * scrollSize.intValue();
-            int destx = (robot.getDestination()[0] - gridmap.getLeftColumn() * cellSize-7) * scrollSize.intValue();
-            int desty = (robot.getDestination()[1] - gridmap.getBottomRow() * cellSize-7) * scrollSize.intValue();
+            int posx = (robot.getPosition()[0] - snapshot.getLeftColumn() * cellSize) * scrollSize.intValue();
+            int posy = (robot.getPosition()[1] - snapshot.getBottomRow() * cellSize) * scrollSize.intValue();
+            int destx = (robot.getDestination()[0] - snapshot.getLeftColumn() * cellSize-7) * scrollSize.intValue();
+            int desty = (robot.getDestination()[1] - snapshot.getBottomRow() * cellSize-7) * scrollSize.intValue();
             int angle = robot.getRobotOrientation();
             double rad = angle * Math.PI / (180);
             Shape r = new Line2D.Double(posx, posy, posx + 12 * Math.cos(rad) * scrollSize.intValue(), posy + 12 * Math.sin(rad) * scrollSize.intValue());
@@ -8,6 +8,8 @@ package no.ntnu.tem.robot;
 
 import java.util.ArrayList;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 import no.ntnu.et.general.Position;
 import org.ejml.simple.SimpleMatrix;
 
@@ -30,6 +32,8 @@ public class Robot {
     private final int[] towerOffset, sensorOffset;
     private final IR irSensors;
     private final ConcurrentLinkedQueue<Measurement> measurements;
+    private final AtomicInteger numberOfMeasurements;
+    private volatile Thread measurementConsumer;
 
     private int[] initialPosition;
     private int[] estimatedPosition;
@@ -93,6 +97,7 @@ public class Robot {
         this.sensorOffset = sensorOffset;
         this.irSensors = new IR(irHeading);
         this.measurements = new ConcurrentLinkedQueue<>();
+        this.numberOfMeasurements = new AtomicInteger();
 
         this.initialPosition = new int[]{0, 0, 0};
         this.estimatedPosition = new int[]{0, 0};
@@ -157,7 +162,34 @@ public class Robot {
             irHeading[i] = (towerHeading + irSensors.getSpreading()[i]) % 360;
         }
         Measurement measurment = new Measurement(measuredOrientation, measuredPosition, irHeading, irData);
-        return measurements.offer(measurment);
+        numberOfMeasurements.incrementAndGet();
+        boolean added = measurements.offer(measurment);
+        Thread consumer = measurementConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+        return added;
+    }
+
+    /**
+     * Sets the thread that takes the measurements of the robot. The thread is
+     * unparked every time a measurement is added, so it can wait with
+     * LockSupport.park instead of polling the queue.
+     *
+     * @param consumer the thread, or null to stop waking up any thread
+     */
+    public void setMeasurementConsumer(Thread consumer) {
+        measurementConsumer = consumer;
+    }
+
+    /**
+     * Returns the number of measurements in the queue that are not yet
+     * processed
+     *
+     * @return the number of measurements
+     */
+    public int getNumberOfMeasurements() {
+        return numberOfMeasurements.get();
     }
 
     /**
@@ -170,6 +202,9 @@ public class Robot {
      */
     public Measurement getMeasurement() {
         Measurement m = measurements.poll();
+        if (m != null) {
+            numberOfMeasurements.decrementAndGet();
+        }
         return m;
     }
 
@@ -0,0 +1,121 @@
+/*
+ * This code is written as a part of a Master Thesis
+ * the spring of 2016.
+ *
+ * Eirik Thon(Master 2016 @ NTNU)
+ */
+package no.ntnu.et.map;
+
+import java.util.Random;
+import no.ntnu.et.general.Position;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Checks that the nearest obstacles GridMap stamps into the cells it adds when
+ * it grows are the same as the ones the search of every new cell, which was
+ * used before, finds.
+ *
+ * @author Eirik Thon
+ */
+public class GridMapAddCellsTest {
+
+    @Test
+    public void grownCellsMatchSearch() {
+        for (int cellSize : new int[]{1, 2, 5}) {
+            for (int storageType : new int[]{GridMap.HASHED_STORAGE, GridMap.DENSE_STORAGE, GridMap.TILED_STORAGE}) {
+                GridMap map = new GridMap(cellSize, 30 * cellSize, 30 * cellSize, storageType);
+                Random random = new Random(cellSize * 10 + storageType);
+                for (int growth = 0; growth < 8; growth++) {
+                    addObstaclesAlongEdges(map, random);
+                    int bottom = map.getBottomRow();
+                    int top = map.getTopRow();
+                    int left = map.getLeftColumn();
+                    int right = map.getRightColumn();
+                    // Grow past one or two edges by a few cells
+                    double x = (random.nextBoolean() ? left - 1 - random.nextInt(20) : right + 1 + random.nextInt(20)) * cellSize;
+                    double y = (random.nextBoolean() ? bottom - 1 - random.nextInt(20) : top + 1 + random.nextInt(20)) * cellSize;
+                    if (random.nextBoolean()) {
+                        x = (left + right) / 2 * cellSize;
+                    }
+                    map.resize(new Position(x, y));
+                    String message = "cell size " + cellSize + ", storage " + storageType + ", growth " + growth;
+                    // An unbounded storage keeps the distances of cells outside
+                    // the map, so only the distance to its new cells can be
+                    // compared
+                    boolean sameObstacle = storageType != GridMap.TILED_STORAGE;
+                    for (int i = map.getBottomRow(); i <= map.getTopRow(); i++) {
+                        for (int j = map.getLeftColumn(); j <= map.getRightColumn(); j++) {
+                            if (i < bottom || i > top || j < left || j > right) {
+                                assertMatchesSearch(map, i, j, sameObstacle, message);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Measures obstacles at random cells close to the boundaries of the map
+     */
+    private static void addObstaclesAlongEdges(GridMap map, Random random) {
+        for (int k = 0; k < 200; k++) {
+            int row = map.getBottomRow() + random.nextInt(map.getNumberOfRows());
+            int column = map.getLeftColumn() + random.nextInt(map.getNumberOfColumns());
+            switch (random.nextInt(4)) {
+                case 0:
+                    row = map.getBottomRow() + random.nextInt(3);
+                    break;
+                case 1:
+                    row = map.getTopRow() - random.nextInt(3);
+                    break;
+                case 2:
+                    column = map.getLeftColumn() + random.nextInt(3);
+                    break;
+                default:
+                    column = map.getRightColumn() - random.nextInt(3);
+            }
+            map.addMeasurement(row, column, true);
+        }
+    }
+
+    private static void assertMatchesSearch(GridMap map, int row, int column, boolean sameObstacle, String message) {
+        int expected = findNearestObstacle(map, row, column);
+        int actual = map.findCell(row, column).getNearestObstacle();
+        if (sameObstacle ? actual != expected
+                : ObstacleOffset.squaredDistance(actual) != ObstacleOffset.squaredDistance(expected)) {
+            fail(message + ", cell (" + row + ", " + column + "): expected obstacle at ("
+                    + ObstacleOffset.getRowOffset(expected) + ", " + ObstacleOffset.getColumnOffset(expected)
+                    + "), got (" + ObstacleOffset.getRowOffset(actual) + ", " + ObstacleOffset.getColumnOffset(actual) + ")");
+        }
+    }
+
+    /**
+     * The search GridMap.addCells did for each new cell before the obstacles
+     * were stamped: the first of the nearest occupied cells within the
+     * weakly restricted radius, row by row
+     */
+    private static int findNearestObstacle(GridMap map, int row, int column) {
+        CircleStencil stencil = CircleStencil.get(GridMap.getWeaklyRestrictedCells(map.getCellSize()));
+        int bottom = Math.max(row - stencil.getRadius(), map.getBottomRow());
+        int top = Math.min(row + stencil.getRadius(), map.getTopRow());
+        int nearest = CellStorage.NO_OBSTACLE;
+        int nearestDistance = Integer.MAX_VALUE;
+        for (int i = bottom; i <= top; i++) {
+            int halfWidth = stencil.getHalfWidth(i - row);
+            int left = Math.max(column - halfWidth, map.getLeftColumn());
+            int right = Math.min(column + halfWidth, map.getRightColumn());
+            for (int j = left; j <= right; j++) {
+                if (map.findCell(i, j).isOccupied()) {
+                    int distance = (i - row) * (i - row) + (j - column) * (j - column);
+                    if (distance < nearestDistance) {
+                        nearestDistance = distance;
+                        nearest = ObstacleOffset.encode(i - row, j - column);
+                    }
+                }
+            }
+        }
+        return nearest;
+    }
+}
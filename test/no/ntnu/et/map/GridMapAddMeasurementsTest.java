@@ -0,0 +1,88 @@
+/*
+ * This code is written as a part of a Master Thesis
+ * the spring of 2016.
+ *
+ * Eirik Thon(Master 2016 @ NTNU)
+ */
+package no.ntnu.et.map;
+
+import java.util.Arrays;
+import java.util.Random;
+import no.ntnu.et.general.Position;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Checks that adding a batch of measurements with GridMap.addMeasurements
+ * gives the same map as adding the measurements one by one in the order they
+ * were made, when the binary occupancy model is used.
+ *
+ * @author Eirik Thon
+ */
+public class GridMapAddMeasurementsTest {
+
+    @Test
+    public void batchMatchesSingleMeasurements() {
+        for (int cellSize : new int[]{1, 5}) {
+            for (int storageType : new int[]{GridMap.HASHED_STORAGE, GridMap.DENSE_STORAGE, GridMap.TILED_STORAGE}) {
+                GridMap batched = createMap(cellSize, storageType);
+                GridMap single = createMap(cellSize, storageType);
+                Random random = new Random(cellSize * 10 + storageType);
+                MeasurementBatch batch = new MeasurementBatch();
+                for (int round = 0; round < 20; round++) {
+                    // A few cells in several chunks, each measured many times
+                    // with both results, so the last measurement decides
+                    int[] rows = new int[60];
+                    int[] columns = new int[60];
+                    for (int k = 0; k < rows.length; k++) {
+                        rows[k] = batched.getBottomRow() + random.nextInt(batched.getNumberOfRows());
+                        columns[k] = batched.getLeftColumn() + random.nextInt(batched.getNumberOfColumns());
+                    }
+                    batch.clear();
+                    for (int k = 0; k < 300; k++) {
+                        int cell = random.nextInt(rows.length);
+                        boolean measurement = random.nextInt(3) == 0;
+                        batch.add(rows[cell], columns[cell], measurement);
+                        single.addMeasurement(rows[cell], columns[cell], measurement);
+                    }
+                    batched.addMeasurements(batch);
+                    assertSameMap(single, batched, "cell size " + cellSize + ", storage " + storageType + ", round " + round);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a map that also has negative rows and columns
+     */
+    private static GridMap createMap(int cellSize, int storageType) {
+        GridMap map = new GridMap(cellSize, 40 * cellSize, 40 * cellSize, storageType);
+        map.resize(new Position(-20 * cellSize, -20 * cellSize));
+        return map;
+    }
+
+    private static void assertSameMap(GridMap expected, GridMap actual, String message) {
+        for (int i = expected.getBottomRow(); i <= expected.getTopRow(); i++) {
+            for (int j = expected.getLeftColumn(); j <= expected.getRightColumn(); j++) {
+                Cell expectedCell = expected.findCell(i, j);
+                Cell actualCell = actual.findCell(i, j);
+                MapLocation location = new MapLocation(i, j);
+                if (expectedCell.isPreviouslyObserved() != actualCell.isPreviouslyObserved()
+                        || expectedCell.isOccupied() != actualCell.isOccupied()
+                        || expectedCell.isRestricted() != actualCell.isRestricted()
+                        || expectedCell.isWeaklyRestricted() != actualCell.isWeaklyRestricted()
+                        || expected.getObstacleDistance(location) != actual.getObstacleDistance(location)) {
+                    fail(message + ": cell (" + i + ", " + j + ") differs");
+                }
+            }
+        }
+        assertEquals(message + ": frontier", Arrays.toString(expected.getPackedFrontierLocations()),
+                Arrays.toString(actual.getPackedFrontierLocations()));
+        MapStatistics expectedStatistics = expected.getStatistics();
+        MapStatistics actualStatistics = actual.getStatistics();
+        assertEquals(message + ": observed", expectedStatistics.getObservedCells(), actualStatistics.getObservedCells());
+        assertEquals(message + ": occupied", expectedStatistics.getOccupiedCells(), actualStatistics.getOccupiedCells());
+        assertEquals(message + ": restricted", expectedStatistics.getRestrictedCells(), actualStatistics.getRestrictedCells());
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * This code is written as a part of a Master Thesis
+ * the spring of 2016.
+ *
+ * Eirik Thon(Master 2016 @ NTNU)
+ */
+package no.ntnu.et.map;
+
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Checks the incrementally updated obstacle distances and restrictions of
+ * GridMap against distances computed from scratch from all occupied cells.
+ *
+ * @author Eirik Thon
+ */
+public class GridMapObstacleDistanceTest {
+    private static final int SIZE = 40;
+
+    @Test
+    public void restrictionsMatchRecomputeAfterRandomChanges() {
+        for (int cellSize : new int[]{1, 2, 5}) {
+            for (int storageType : new int[]{GridMap.HASHED_STORAGE, GridMap.DENSE_STORAGE, GridMap.TILED_STORAGE}) {
+                GridMap map = new GridMap(cellSize, SIZE * cellSize, SIZE * cellSize, storageType);
+                Random random = new Random(cellSize * 10 + storageType);
+                for (int step = 1; step <= 2000; step++) {
+                    // Measurements in a small area add and remove obstacles
+                    // close to each other, so the distance waves overlap
+                    int row = 10 + random.nextInt(20);
+                    int column = 10 + random.nextInt(20);
+                    map.addMeasurement(row, column, random.nextBoolean());
+                    if (step % 200 == 0) {
+                        assertMatchesRecompute(map, "cell size " + cellSize + ", storage " + storageType + ", step " + step);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void noDistanceOutsideBoundedMap() {
+        for (int storageType : new int[]{GridMap.HASHED_STORAGE, GridMap.DENSE_STORAGE}) {
+            GridMap map = new GridMap(1, SIZE, SIZE, storageType);
+            map.addMeasurement(0, 0, true);
+            assertEquals(0, map.getObstacleDistance(new MapLocation(0, 0)), 0);
+            assertEquals(Double.POSITIVE_INFINITY, map.getObstacleDistance(new MapLocation(-1, 0)), 0);
+            assertEquals(Double.POSITIVE_INFINITY, map.getObstacleDistance(new MapLocation(0, SIZE)), 0);
+        }
+    }
+
+    /**
+     * Compares every cell of the map with the distance to the nearest
+     * occupied cell found by looking at all occupied cells
+     */
+    private static void assertMatchesRecompute(GridMap map, String message) {
+        int cellSize = map.getCellSize();
+        int restricted = GridMap.getRestrictedCells(cellSize);
+        int weaklyRestricted = GridMap.getWeaklyRestrictedCells(cellSize);
+        int[] obstacleRows = new int[map.getNumberOfCells()];
+        int[] obstacleColumns = new int[map.getNumberOfCells()];
+        int obstacles = 0;
+        for (int i = map.getBottomRow(); i <= map.getTopRow(); i++) {
+            for (int j = map.getLeftColumn(); j <= map.getRightColumn(); j++) {
+                if (map.findCell(i, j).isOccupied()) {
+                    obstacleRows[obstacles] = i;
+                    obstacleColumns[obstacles] = j;
+                    obstacles++;
+                }
+            }
+        }
+        for (int i = map.getBottomRow(); i <= map.getTopRow(); i++) {
+            for (int j = map.getLeftColumn(); j <= map.getRightColumn(); j++) {
+                int nearest = Integer.MAX_VALUE;
+                for (int k = 0; k < obstacles; k++) {
+                    int rowOffset = obstacleRows[k] - i;
+                    int columnOffset = obstacleColumns[k] - j;
+                    nearest = Math.min(nearest, rowOffset * rowOffset + columnOffset * columnOffset);
+                }
+                Cell cell = map.findCell(i, j);
+                boolean isRestricted = nearest <= restricted * restricted;
+                boolean isWeaklyRestricted = nearest <= weaklyRestricted * weaklyRestricted;
+                double distance = isWeaklyRestricted ? Math.sqrt(nearest) * cellSize : Double.POSITIVE_INFINITY;
+                if (cell.isRestricted() != isRestricted || cell.isWeaklyRestricted() != isWeaklyRestricted
+                        || map.getObstacleDistance(new MapLocation(i, j)) != distance) {
+                    fail(message + ", cell (" + i + ", " + j + "): expected restricted " + isRestricted
+                            + ", weakly restricted " + isWeaklyRestricted + ", distance " + distance);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * This code is written as a part of a Master Thesis
+ * the spring of 2016.
+ *
+ * Eirik Thon(Master 2016 @ NTNU)
+ */
+package no.ntnu.et.map;
+
+import java.util.Random;
+import no.ntnu.et.general.Position;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Checks that the batches GridMap adds to its change queues hold exactly the
+ * cells that changed between two snapshots, and that a consumer that follows
+ * the batches, or resynchronises from the snapshot after an overflow, always
+ * has the same cells as the latest snapshot.
+ *
+ * @author Eirik Thon
+ */
+public class MapChangeQueueTest {
+
+    @Test
+    public void batchesHoldChangedCells() {
+        for (int storageType : new int[]{GridMap.HASHED_STORAGE, GridMap.DENSE_STORAGE, GridMap.TILED_STORAGE}) {
+            GridMap map = createMap(storageType);
+            MapChangeQueue queue = map.addChangeQueue(1);
+            Random random = new Random(13 + storageType);
+            for (int round = 0; round < 30; round++) {
+                MapSnapshot previous = map.getSnapshot();
+                addMeasurements(map, random);
+                MapSnapshot snapshot = map.publishSnapshot();
+                String message = "storage " + storageType + ", round " + round;
+                MapChangeBatch batch = queue.poll();
+                assertNotNull(message, batch);
+                assertEquals(message + ": version", snapshot.getVersion(), batch.getVersion());
+                assertEquals(message + ": queue", 0, queue.size());
+                assertFalse(message, queue.checkOverflow());
+
+                // Every cell in the batch changed, and every cell that
+                // changed is in the batch
+                boolean[][] inBatch = new boolean[map.getNumberOfRows()][map.getNumberOfColumns()];
+                for (int k = 0; k < batch.size(); k++) {
+                    int row = batch.getRow(k);
+                    int column = batch.getColumn(k);
+                    String cell = message + ", cell (" + row + ", " + column + ")";
+                    assertEquals(cell + ": location", PackedLocation.pack(row, column), batch.getPackedLocation(k));
+                    assertEquals(cell + ": old state", previous.getState(row, column), batch.getOldState(k));
+                    assertEquals(cell + ": new state", snapshot.getState(row, column), batch.getNewState(k));
+                    assertTrue(cell + ": unchanged", batch.getOldState(k) != batch.getNewState(k));
+                    assertFalse(cell + ": twice", inBatch[row - map.getBottomRow()][column - map.getLeftColumn()]);
+                    inBatch[row - map.getBottomRow()][column - map.getLeftColumn()] = true;
+                }
+                for (int i = map.getBottomRow(); i <= map.getTopRow(); i++) {
+                    for (int j = map.getLeftColumn(); j <= map.getRightColumn(); j++) {
+                        if (previous.getState(i, j) != snapshot.getState(i, j)
+                                && !inBatch[i - map.getBottomRow()][j - map.getLeftColumn()]) {
+                            fail(message + ": cell (" + i + ", " + j + ") changed but is not in the batch");
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void consumerFollowsMapThroughOverflows() {
+        GridMap map = createMap(GridMap.TILED_STORAGE);
+        MapChangeQueue queue = map.addChangeQueue(3);
+        Random random = new Random(13);
+        int[][] states = new int[map.getNumberOfRows()][map.getNumberOfColumns()];
+        long version = map.getSnapshot().getVersion();
+        int overflows = 0;
+        for (int round = 0; round < 60; round++) {
+            // The consumer falls behind now and then
+            int publishes = 1 + random.nextInt(6);
+            for (int k = 0; k < publishes; k++) {
+                addMeasurements(map, random);
+                map.publishSnapshot();
+            }
+            String message = "round " + round;
+            if (queue.checkOverflow()) {
+                overflows++;
+                assertTrue(message + ": overflow after " + publishes + " batches", publishes > 3);
+                assertEquals(message + ": queue after overflow", 0, queue.size());
+                MapSnapshot snapshot = map.getSnapshot();
+                for (int i = map.getBottomRow(); i <= map.getTopRow(); i++) {
+                    for (int j = map.getLeftColumn(); j <= map.getRightColumn(); j++) {
+                        states[i - map.getBottomRow()][j - map.getLeftColumn()] = snapshot.getState(i, j);
+                    }
+                }
+                version = snapshot.getVersion();
+            }
+            MapChangeBatch batch;
+            while ((batch = queue.poll()) != null) {
+                assertTrue(message + ": version " + batch.getVersion() + " after " + version, batch.getVersion() > version);
+                version = batch.getVersion();
+                for (int k = 0; k < batch.size(); k++) {
+                    int[] rowStates = states[batch.getRow(k) - map.getBottomRow()];
+                    int column = batch.getColumn(k) - map.getLeftColumn();
+                    assertEquals(message + ": old state", rowStates[column], batch.getOldState(k));
+                    rowStates[column] = batch.getNewState(k);
+                }
+            }
+            MapSnapshot snapshot = map.getSnapshot();
+            assertEquals(message + ": version", snapshot.getVersion(), version);
+            for (int i = map.getBottomRow(); i <= map.getTopRow(); i++) {
+                for (int j = map.getLeftColumn(); j <= map.getRightColumn(); j++) {
+                    if (states[i - map.getBottomRow()][j - map.getLeftColumn()] != snapshot.getState(i, j)) {
+                        fail(message + ": cell (" + i + ", " + j + ") differs from the snapshot");
+                    }
+                }
+            }
+        }
+        assertTrue("no overflow", overflows > 0);
+
+        map.removeChangeQueue(queue);
+        addMeasurements(map, random);
+        map.publishSnapshot();
+        assertEquals("removed queue", 0, queue.size());
+    }
+
+    /**
+     * Creates a map of a few chunks that also has negative rows and columns
+     */
+    private static GridMap createMap(int storageType) {
+        GridMap map = new GridMap(2, 80, 80, storageType);
+        map.resize(new Position(-40, -40));
+        map.publishSnapshot();
+        return map;
+    }
+
+    private static void addMeasurements(GridMap map, Random random) {
+        for (int k = 0; k < 50; k++) {
+            int row = map.getBottomRow() + random.nextInt(map.getNumberOfRows());
+            int column = map.getLeftColumn() + random.nextInt(map.getNumberOfColumns());
+            map.addMeasurement(row, column, random.nextInt(3) == 0);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * This code is written as a part of a Master Thesis
+ * the spring of 2016.
+ *
+ * Eirik Thon(Master 2016 @ NTNU)
+ */
+package no.ntnu.et.map;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import no.ntnu.et.general.Position;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Checks that a map is the same after it has been flushed to a MapFile and
+ * read again, and that a file with a damaged header or record still holds
+ * the previous flush.
+ *
+ * @author Eirik Thon
+ */
+public class MapFileTest {
+    // The layout of the file, see MapFile
+    private static final int HEADER_SIZE = 64;
+    private static final int FLUSH_POSITION = 40;
+    private static final int RECORD_SIZE = 16 + 3 * GridMap.CHUNK_SIZE * GridMap.CHUNK_SIZE + 4;
+
+    @Test
+    public void reopenedMapMatchesFlushedMap() throws IOException {
+        for (int storageType : new int[]{GridMap.HASHED_STORAGE, GridMap.DENSE_STORAGE, GridMap.TILED_STORAGE}) {
+            for (int cellSize : new int[]{1, 5}) {
+                Path path = createTempFile();
+                GridMap map = createMap(cellSize, storageType);
+                Random random = new Random(cellSize * 10 + storageType);
+                MapFile file = MapFile.create(path);
+                assertTrue(file.isEmpty());
+                for (int flush = 0; flush < 3; flush++) {
+                    addMeasurements(map, random);
+                    map.publishSnapshot();
+                    file.flush(map.getSnapshot());
+                }
+                file.close();
+                String message = "cell size " + cellSize + ", storage " + storageType;
+                file = MapFile.open(path);
+                MapSnapshot snapshot = file.readSnapshot();
+                assertSameSnapshot(map.getSnapshot(), snapshot, message);
+                GridMap restored = new GridMap(snapshot, storageType, GridMap.BINARY_OCCUPANCY);
+                assertSameMap(map, restored, message);
+
+                // Flushes after a reopen only add the changed chunks
+                addMeasurements(restored, random);
+                restored.publishSnapshot();
+                file.flush(restored.getSnapshot());
+                file.close();
+                file = MapFile.open(path);
+                assertSameSnapshot(restored.getSnapshot(), file.readSnapshot(), message + ", after reopen");
+                file.close();
+            }
+        }
+    }
+
+    @Test
+    public void damagedHeaderFallsBackToPreviousFlush() throws IOException {
+        Path path = createTempFile();
+        GridMap map = createMap(2, GridMap.TILED_STORAGE);
+        Random random = new Random(17);
+        MapFile file = MapFile.create(path);
+        addMeasurements(map, random);
+        map.publishSnapshot();
+        file.flush(map.getSnapshot());
+        MapSnapshot previous = map.getSnapshot();
+        addMeasurements(map, random);
+        map.publishSnapshot();
+        file.flush(map.getSnapshot());
+        file.close();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            int newest = readLong(channel, FLUSH_POSITION) > readLong(channel, HEADER_SIZE + FLUSH_POSITION) ? 0 : 1;
+            // The bottom row of the header, as if the flush was cut off
+            // while the header was written
+            damage(channel, newest * HEADER_SIZE + 16);
+        }
+        file = MapFile.open(path);
+        assertSameSnapshot(previous, file.readSnapshot(), "damaged header");
+        file.close();
+    }
+
+    @Test
+    public void damagedRecordFallsBackToPreviousFlush() throws IOException {
+        Path path = createTempFile();
+        GridMap map = createMap(2, GridMap.TILED_STORAGE);
+        Random random = new Random(17);
+        MapFile file = MapFile.create(path);
+        addMeasurements(map, random);
+        map.publishSnapshot();
+        file.flush(map.getSnapshot());
+        MapSnapshot previous = map.getSnapshot();
+        addMeasurements(map, random);
+        map.publishSnapshot();
+        MapSnapshot newest = map.getSnapshot();
+        file.flush(newest);
+        file.close();
+
+        int chunkRow;
+        int chunkColumn;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long flush = Math.max(readLong(channel, FLUSH_POSITION), readLong(channel, HEADER_SIZE + FLUSH_POSITION));
+            long position = findRecord(channel, flush);
+            ByteBuffer location = ByteBuffer.allocate(8);
+            channel.read(location, position);
+            chunkRow = location.getInt(0);
+            chunkColumn = location.getInt(4);
+            // The flags of the first cell, so the checksum of the record is
+            // wrong
+            damage(channel, position + 16);
+        }
+        file = MapFile.open(path);
+        MapSnapshot snapshot = file.readSnapshot();
+        file.close();
+        // The damaged chunk is read from the previous flush, the others from
+        // the newest
+        for (int i = newest.getBottomRow(); i <= newest.getTopRow(); i++) {
+            for (int j = newest.getLeftColumn(); j <= newest.getRightColumn(); j++) {
+                boolean damaged = Math.floorDiv(i, GridMap.CHUNK_SIZE) == chunkRow
+                        && Math.floorDiv(j, GridMap.CHUNK_SIZE) == chunkColumn;
+                assertSameCell(damaged ? previous : newest, snapshot, i, j, "damaged record");
+            }
+        }
+    }
+
+    private static Path createTempFile() throws IOException {
+        Path path = Files.createTempFile("map", ".bin");
+        // The file can not be deleted on Windows while it is mapped
+        path.toFile().deleteOnExit();
+        return path;
+    }
+
+    /**
+     * Creates a map of a few chunks that also has negative rows and columns
+     */
+    private static GridMap createMap(int cellSize, int storageType) {
+        GridMap map = new GridMap(cellSize, 40 * cellSize, 40 * cellSize, storageType);
+        map.resize(new Position(-20 * cellSize, -20 * cellSize));
+        return map;
+    }
+
+    private static void addMeasurements(GridMap map, Random random) {
+        for (int k = 0; k < 300; k++) {
+            int row = map.getBottomRow() + random.nextInt(map.getNumberOfRows());
+            int column = map.getLeftColumn() + random.nextInt(map.getNumberOfColumns());
+            map.addMeasurement(row, column, random.nextInt(3) == 0);
+        }
+    }
+
+    /**
+     * Returns the position of a record that was written by the given flush
+     */
+    private static long findRecord(FileChannel channel, long flush) throws IOException {
+        for (long slot = 0;; slot++) {
+            // The segments of records follow each other without gaps
+            long position = 2 * HEADER_SIZE + slot * RECORD_SIZE;
+            if (position + RECORD_SIZE > channel.size()) {
+                fail("No record of flush " + flush);
+            }
+            if (readLong(channel, position + 8) == flush) {
+                return position;
+            }
+        }
+    }
+
+    private static long readLong(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        channel.read(buffer, position);
+        return buffer.getLong(0);
+    }
+
+    private static void damage(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        channel.read(buffer, position);
+        buffer.put(0, (byte) ~buffer.get(0));
+        buffer.rewind();
+        channel.write(buffer, position);
+    }
+
+    private static void assertSameSnapshot(MapSnapshot expected, MapSnapshot actual, String message) {
+        assertEquals(message + ": version", expected.getVersion(), actual.getVersion());
+        assertEquals(message + ": bottom row", expected.getBottomRow(), actual.getBottomRow());
+        assertEquals(message + ": top row", expected.getTopRow(), actual.getTopRow());
+        assertEquals(message + ": left column", expected.getLeftColumn(), actual.getLeftColumn());
+        assertEquals(message + ": right column", expected.getRightColumn(), actual.getRightColumn());
+        for (int i = expected.getBottomRow(); i <= expected.getTopRow(); i++) {
+            for (int j = expected.getLeftColumn(); j <= expected.getRightColumn(); j++) {
+                assertSameCell(expected, actual, i, j, message);
+            }
+        }
+        assertEquals(message + ": frontier", Arrays.toString(expected.getPackedFrontierLocations()),
+                Arrays.toString(actual.getPackedFrontierLocations()));
+        MapStatistics expectedStatistics = expected.getStatistics();
+        MapStatistics actualStatistics = actual.getStatistics();
+        assertEquals(message + ": observed", expectedStatistics.getObservedCells(), actualStatistics.getObservedCells());
+        assertEquals(message + ": occupied", expectedStatistics.getOccupiedCells(), actualStatistics.getOccupiedCells());
+        assertEquals(message + ": restricted", expectedStatistics.getRestrictedCells(), actualStatistics.getRestrictedCells());
+    }
+
+    private static void assertSameCell(MapSnapshot expected, MapSnapshot actual, int row, int column, String message) {
+        if (expected.getState(row, column) != actual.getState(row, column)
+                || expected.getObstacleDistance(row, column) != actual.getObstacleDistance(row, column)) {
+            fail(message + ": cell (" + row + ", " + column + ") differs");
+        }
+    }
+
+    private static void assertSameMap(GridMap expected, GridMap actual, String message) {
+        for (int i = expected.getBottomRow(); i <= expected.getTopRow(); i++) {
+            for (int j = expected.getLeftColumn(); j <= expected.getRightColumn(); j++) {
+                Cell expectedCell = expected.findCell(i, j);
+                Cell actualCell = actual.findCell(i, j);
+                MapLocation location = new MapLocation(i, j);
+                if (expectedCell.isPreviouslyObserved() != actualCell.isPreviouslyObserved()
+                        || expectedCell.isOccupied() != actualCell.isOccupied()
+                        || expectedCell.isRestricted() != actualCell.isRestricted()
+                        || expectedCell.isWeaklyRestricted() != actualCell.isWeaklyRestricted()
+                        || expected.getObstacleDistance(location) != actual.getObstacleDistance(location)) {
+                    fail(message + ": restored cell (" + i + ", " + j + ") differs");
+                }
+            }
+        }
+        assertEquals(message + ": restored frontier", Arrays.toString(expected.getPackedFrontierLocations()),
+                Arrays.toString(actual.getPackedFrontierLocations()));
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * This code is written as a part of a Master Thesis
+ * the spring of 2016.
+ *
+ * Eirik Thon(Master 2016 @ NTNU)
+ */
+package no.ntnu.et.map;
+
+import java.util.ArrayList;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Checks that RayCaster finds the same cells, in the same order, as the line
+ * algorithm the mapping used before it.
+ *
+ * @author Eirik Thon
+ */
+public class RayCasterTest {
+
+    @Test
+    public void allShortLinesMatchOldLine() {
+        // One caster for all lines, so the buffers are reused and grown
+        RayCaster ray = new RayCaster();
+        for (int startRow : new int[]{0, -7, 13}) {
+            for (int startColumn : new int[]{0, 5, -11}) {
+                for (int dy = -40; dy <= 40; dy++) {
+                    for (int dx = -40; dx <= 40; dx++) {
+                        assertSameLine(ray, startRow, startColumn, startRow + dy, startColumn + dx);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void longLinesMatchOldLine() {
+        RayCaster ray = new RayCaster();
+        Random random = new Random(22);
+        for (int k = 0; k < 2000; k++) {
+            int startRow = random.nextInt(2001) - 1000;
+            int startColumn = random.nextInt(2001) - 1000;
+            assertSameLine(ray, startRow, startColumn, startRow + random.nextInt(1001) - 500,
+                    startColumn + random.nextInt(1001) - 500);
+        }
+    }
+
+    private static void assertSameLine(RayCaster ray, int startRow, int startColumn, int endRow, int endColumn) {
+        ArrayList<MapLocation> expected = getLineBetweenPoints(new MapLocation(startRow, startColumn),
+                new MapLocation(endRow, endColumn));
+        ray.cast(startRow, startColumn, endRow, endColumn);
+        String line = "(" + startRow + ", " + startColumn + ") to (" + endRow + ", " + endColumn + ")";
+        assertEquals(line + " length", expected.size(), ray.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(line + " row " + i, expected.get(i).getRow(), ray.getRow(i));
+            assertEquals(line + " column " + i, expected.get(i).getColumn(), ray.getColumn(i));
+        }
+    }
+
+    /**
+     * MappingController.getLineBetweenPoints as it was before RayCaster
+     */
+    private static ArrayList<MapLocation> getLineBetweenPoints(MapLocation loc1, MapLocation loc2) {
+        int dx = loc2.getColumn() - loc1.getColumn();
+        int dy = loc2.getRow() - loc1.getRow();
+        double angle = Math.toDegrees(Math.atan2(dy, dx));
+        if (angle < 0) {
+            angle += 360;
+        }
+        int oct = MapLocation.getOctant(angle);
+        MapLocation locOct = MapLocation.switchToOctantZeroFrom(oct, new MapLocation(dy, dx));
+        ArrayList<MapLocation> lineOct = bresenham(new MapLocation(0, 0), locOct);
+        ArrayList<MapLocation> line = new ArrayList<MapLocation>();
+        for (MapLocation loc : lineOct) {
+            line.add(MapLocation.sum(loc1, MapLocation.switchFromOctantZeroTo(oct, loc)));
+        }
+        return line;
+    }
+
+    /**
+     * MappingController.bresenham as it was before RayCaster
+     */
+    private static ArrayList<MapLocation> bresenham(MapLocation start, MapLocation end) {
+        ArrayList<MapLocation> ray = new ArrayList<MapLocation>();
+        int startX = start.getColumn();
+        int startY = start.getRow();
+        int endX = end.getColumn();
+        int endY = end.getRow();
+        ray.add(new MapLocation(startY, startX));
+
+        int dx = endX - startX;
+        int dy = endY - startY;
+        int D = 2 * dy - dx;
+        int y = startY;
+        if (D > 0) {
+            y = y + 1;
+            D = D - (2 * dx);
+        }
+        for (int x = startX + 1; x < endX; x++) {
+            ray.add(new MapLocation(y, x));
+            D = D + (2 * dy);
+            if (D > 0) {
+                y = y + 1;
+                D = D - (2 * dx);
+            }
+        }
+        return ray;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * This code is written as a part of a Master Thesis
+ * the spring of 2016.
+ *
+ * Eirik Thon(Master 2016 @ NTNU)
+ */
+package no.ntnu.et.mapping;
+
+import java.util.Random;
+import no.ntnu.et.general.Position;
+import no.ntnu.tem.robot.Robot;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Checks RobotPositionIndex.isNear against the linear scan over all robots
+ * that the mapping used before the index.
+ *
+ * @author Eirik Thon
+ */
+public class RobotPositionIndexTest {
+    private static final int RADIUS = 10;
+
+    @Test
+    public void isNearMatchesLinearScan() {
+        Random random = new Random(25);
+        for (int trial = 0; trial < 500; trial++) {
+            // From empty to crowded, and from a few cells to a large area
+            int span = 5 + random.nextInt(200);
+            Robot[] robots = new Robot[random.nextInt(20)];
+            for (int i = 0; i < robots.length; i++) {
+                robots[i] = createRobot(i, random.nextInt(2 * span) - span, random.nextInt(2 * span) - span);
+            }
+            RobotPositionIndex index = new RobotPositionIndex(robots, RADIUS);
+            for (int k = 0; k < 200; k++) {
+                Position position = new Position(random.nextDouble() * 2 * span - span,
+                        random.nextDouble() * 2 * span - span);
+                Robot excluded = robots.length > 0 && random.nextBoolean() ? robots[random.nextInt(robots.length)] : null;
+                assertEquals("trial " + trial + ", position " + position.getXValue() + ", " + position.getYValue(),
+                        isNearLinear(robots, position, excluded), index.isNear(position, excluded));
+            }
+        }
+    }
+
+    @Test
+    public void isNearMatchesLinearScanAtCellBorders() {
+        // Robots and positions on the grid lines of the index, and at exactly
+        // the radius from each other
+        Robot[] robots = new Robot[9];
+        for (int i = 0; i < robots.length; i++) {
+            robots[i] = createRobot(i, (i % 3 - 1) * RADIUS, (i / 3 - 1) * RADIUS);
+        }
+        RobotPositionIndex index = new RobotPositionIndex(robots, RADIUS);
+        for (int x = -3 * RADIUS; x <= 3 * RADIUS; x++) {
+            for (int y = -3 * RADIUS; y <= 3 * RADIUS; y++) {
+                Position position = new Position(x, y);
+                for (Robot excluded : new Robot[]{null, robots[4]}) {
+                    assertEquals("position " + x + ", " + y, isNearLinear(robots, position, excluded),
+                            index.isNear(position, excluded));
+                }
+            }
+        }
+    }
+
+    private static Robot createRobot(int id, int x, int y) {
+        Robot robot = new Robot(id, id, "Robot " + id, 10, 10, 100, 0, new int[]{0, 0},
+                new int[]{5, 5, 5, 5}, new int[]{0, 90, 180, 270});
+        robot.setPosition(new int[]{x, y});
+        return robot;
+    }
+
+    /**
+     * The check MappingController did for every measurement before the
+     * positions were indexed
+     */
+    private static boolean isNearLinear(Robot[] robots, Position position, Robot excluded) {
+        for (Robot otherRobot : robots) {
+            if (otherRobot == excluded) {
+                continue;
+            }
+            int[] otherPositionInt = otherRobot.getPosition();
+            Position otherPosition = new Position(otherPositionInt[0], otherPositionInt[1]);
+            if (Position.distanceBetween(otherPosition, position) < RADIUS) {
+                return true;
+            }
+        }
+        return false;
+    }
+}